@@ -0,0 +1,48 @@
+package dev.natsoft.arbitrage.benchmarks;
+
+import com.github.jnidzwetzki.bitfinex.v2.entity.BitfinexSubmittedOrder;
+import dev.natsoft.arbitrage.RatesKnowledgeGraph;
+import dev.natsoft.arbitrage.exchanges.Exchange;
+import dev.natsoft.arbitrage.model.Market;
+import io.reactivex.rxjava3.core.Observable;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Offline exchange, only provides the fees needed to price the synthetic markets.
+ */
+public class BenchmarkExchange implements Exchange {
+    private static final BigDecimal TAKER_FEE = new BigDecimal("0.00200");
+
+    @Override
+    public void startUpdating(RatesKnowledgeGraph ratesKnowledgeGraph) {
+    }
+
+    @Override
+    public BigDecimal getTakerFee() {
+        return TAKER_FEE;
+    }
+
+    @Override
+    public CompletableFuture<BitfinexSubmittedOrder> tradeAsync(Market market, BigDecimal amount) {
+        CompletableFuture<BitfinexSubmittedOrder> fill = new CompletableFuture<>();
+        fill.completeExceptionally(new UnsupportedOperationException("Benchmarks don't trade"));
+        return fill;
+    }
+
+    @Override
+    public BigDecimal getUSDBalance() {
+        return BigDecimal.ZERO;
+    }
+
+    @Override
+    public Observable<BigDecimal> getUSDUpdatesStream() {
+        return Observable.empty();
+    }
+
+    @Override
+    public String toString() {
+        return "benchmark";
+    }
+}
@@ -0,0 +1,59 @@
+package dev.natsoft.arbitrage.benchmarks;
+
+import dev.natsoft.arbitrage.RatesKnowledgeGraph;
+import dev.natsoft.arbitrage.detection.CycleScorer;
+import dev.natsoft.arbitrage.detection.DetectionStrategy;
+import dev.natsoft.arbitrage.model.Market;
+import dev.natsoft.arbitrage.model.TradeChain;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+
+/**
+ * Tick followed by a detection pass, the unit of work of the ticker stream.
+ * The Szwarcfiter-Lauer strategy is only practical on the smallest universes.
+ */
+@State(Scope.Thread)
+public class DetectionBenchmark {
+    @Param({"50", "200"})
+    public int currencies;
+
+    @Param({"0.1", "0.3"})
+    public double density;
+
+    @Param({"INDEXED", "BELLMAN_FORD", "BOUNDED_DFS"})
+    public DetectionStrategy detector;
+
+    @Param({"1", "4"})
+    public int scoringParallelism;
+
+    @Param("4096")
+    public int scoringThreshold;
+
+    @Param("42")
+    public long seed;
+
+    private RatesKnowledgeGraph graph;
+    private Market[] updates;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticUniverse universe = new SyntheticUniverse(currencies, density, seed);
+        graph = new RatesKnowledgeGraph(detector, new CycleScorer(scoringParallelism, scoringThreshold));
+        universe.populate(graph);
+
+        updates = new Market[1024];
+        for (int i = 0; i < updates.length; i++) {
+            SyntheticUniverse.Quote quote = universe.randomQuote().reprice(universe.getRandom());
+            updates[i] = i % 2 == 0 ? quote.bidMarket(universe.exchange) : quote.askMarket(universe.exchange);
+        }
+    }
+
+    @Benchmark
+    public Optional<TradeChain> detectArbitrage() {
+        graph.updateSecurity(updates[next]);
+        next = (next + 1) & (updates.length - 1);
+        return graph.detectArbitrage(null);
+    }
+}
@@ -0,0 +1,66 @@
+package dev.natsoft.arbitrage.benchmarks;
+
+import dev.natsoft.arbitrage.RatesKnowledgeGraph;
+import dev.natsoft.arbitrage.TickerHandle;
+import dev.natsoft.arbitrage.detection.DetectionStrategy;
+import dev.natsoft.arbitrage.model.Market;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of applying a single rate update to a populated graph,
+ * through the market carrying path and through a bound ticker.
+ */
+@State(Scope.Thread)
+public class GraphUpdateBenchmark {
+    @Param({"50", "200"})
+    public int currencies;
+
+    @Param({"0.1", "0.3"})
+    public double density;
+
+    @Param("42")
+    public long seed;
+
+    private RatesKnowledgeGraph graph;
+    private Market[] updates;
+    private TickerHandle[] tickers;
+    private double[] bids;
+    private double[] asks;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticUniverse universe = new SyntheticUniverse(currencies, density, seed);
+        graph = new RatesKnowledgeGraph(DetectionStrategy.INDEXED);
+        universe.populate(graph);
+
+        updates = new Market[1024];
+        for (int i = 0; i < updates.length; i += 2) {
+            SyntheticUniverse.Quote quote = universe.randomQuote().reprice(universe.getRandom());
+            updates[i] = quote.bidMarket(universe.exchange);
+            updates[i + 1] = quote.askMarket(universe.exchange);
+        }
+
+        tickers = new TickerHandle[1024];
+        bids = new double[tickers.length];
+        asks = new double[tickers.length];
+        for (int i = 0; i < tickers.length; i++) {
+            SyntheticUniverse.Quote quote = universe.randomQuote().reprice(universe.getRandom());
+            tickers[i] = graph.bindTicker(quote.from, quote.to, universe.exchange);
+            bids[i] = quote.bid.doubleValue();
+            asks[i] = quote.ask.doubleValue();
+        }
+    }
+
+    @Benchmark
+    public void updateSecurity() {
+        graph.updateSecurity(updates[next]);
+        next = (next + 1) & (updates.length - 1);
+    }
+
+    @Benchmark
+    public void updateTicker() {
+        tickers[next].update(bids[next], asks[next]);
+        next = (next + 1) & (tickers.length - 1);
+    }
+}
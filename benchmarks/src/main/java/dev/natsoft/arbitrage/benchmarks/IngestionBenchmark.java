@@ -0,0 +1,81 @@
+package dev.natsoft.arbitrage.benchmarks;
+
+import dev.natsoft.arbitrage.RateMatrix;
+import dev.natsoft.arbitrage.model.Market;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rate writes of four concurrent writers, each owning a stripe of the matrix like an ingestion shard.
+ * With a single stripe all of them contend on its lock, with four they write in parallel.
+ */
+@State(Scope.Benchmark)
+@Threads(4)
+public class IngestionBenchmark {
+    @Param({"1", "4"})
+    public int stripes;
+
+    @Param("200")
+    public int currencies;
+
+    @Param("0.1")
+    public double density;
+
+    @Param("42")
+    public long seed;
+
+    private RateMatrix matrix;
+    private int[][] quotesByStripe;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticUniverse universe = new SyntheticUniverse(currencies, density, seed);
+        matrix = new RateMatrix(Long.MAX_VALUE, stripes);
+
+        List<List<Integer>> quotes = new ArrayList<>();
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            quotes.add(new ArrayList<>());
+        }
+        for (SyntheticUniverse.Quote quote : universe.quotes) {
+            int from = matrix.currencyId(quote.from);
+            int to = matrix.currencyId(quote.to);
+            int exchange = matrix.exchangeId(universe.exchange);
+            int bid = matrix.addQuote(from, to, exchange, new Market(quote.from, quote.to, universe.exchange));
+            matrix.addQuote(to, from, exchange, new Market(quote.to, quote.from, universe.exchange));
+            quotes.get(matrix.getQuoteStripe(bid)).add(bid);
+        }
+
+        quotesByStripe = new int[stripes][];
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            quotesByStripe[stripe] = quotes.get(stripe).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+        int stripe;
+        int[] quotes;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(IngestionBenchmark benchmark, ThreadParams params) {
+            stripe = params.getThreadIndex() % benchmark.stripes;
+            quotes = benchmark.quotesByStripe[stripe];
+        }
+    }
+
+    @Benchmark
+    public void write(Writer writer) {
+        int quote = writer.quotes[writer.next];
+        long stamp = matrix.beginWrite(writer.stripe);
+        try {
+            matrix.update(quote, 1.0001, 1.0001, -1e-4, 1);
+        } finally {
+            matrix.endWrite(writer.stripe, stamp);
+        }
+        writer.next = writer.next + 1 == writer.quotes.length ? 0 : writer.next + 1;
+    }
+}
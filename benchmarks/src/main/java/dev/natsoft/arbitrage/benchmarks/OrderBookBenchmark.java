@@ -0,0 +1,61 @@
+package dev.natsoft.arbitrage.benchmarks;
+
+import dev.natsoft.arbitrage.model.OrderBook;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+
+/**
+ * Full depth delta rate on a single {@link OrderBook} and walking it at trade size.
+ */
+@State(Scope.Thread)
+public class OrderBookBenchmark {
+    @Param({"25", "250"})
+    public int depth;
+
+    @Param("42")
+    public long seed;
+
+    private double[] prices;
+    private int[] counts;
+    private double[] amounts;
+    private OrderBook book;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(seed);
+        book = new OrderBook(depth);
+        for (int i = 1; i <= depth; i++) {
+            book.update(100 - i * 0.01, 1, 1 + random.nextDouble());
+            book.update(100 + i * 0.01, 1, -1 - random.nextDouble());
+        }
+
+        prices = new double[4096];
+        counts = new int[prices.length];
+        amounts = new double[prices.length];
+        for (int i = 0; i < prices.length; i++) {
+            boolean bid = random.nextBoolean();
+            int level = 1 + random.nextInt(depth + depth / 4);
+            prices[i] = bid ? 100 - level * 0.01 : 100 + level * 0.01;
+            counts[i] = random.nextInt(4);
+            amounts[i] = (bid ? 1 : -1) * (counts[i] == 0 ? 1 : 1 + random.nextDouble());
+        }
+    }
+
+    @Benchmark
+    public void update() {
+        book.update(prices[next], counts[next], amounts[next]);
+        next = (next + 1) & (prices.length - 1);
+    }
+
+    @Benchmark
+    public double sellRate() {
+        return book.sellRate(5);
+    }
+
+    @Benchmark
+    public double buyRate() {
+        return book.buyRate(500);
+    }
+}
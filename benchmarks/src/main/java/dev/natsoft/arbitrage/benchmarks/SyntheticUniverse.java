@@ -0,0 +1,108 @@
+package dev.natsoft.arbitrage.benchmarks;
+
+import dev.natsoft.arbitrage.RatesKnowledgeGraph;
+import dev.natsoft.arbitrage.exchanges.Exchange;
+import dev.natsoft.arbitrage.model.Market;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Randomly generated market universe.
+ * <p>
+ * Currency 0 is USD, every other currency gets a log-uniform USD price and every pair
+ * of currencies is listed with the given density. Quotes carry a small spread and noise,
+ * so some of the cycles are profitable.
+ */
+public class SyntheticUniverse {
+    private static final MathContext MC = MathContext.DECIMAL64;
+
+    public final Exchange exchange;
+    public final String[] currencies;
+    public final List<Quote> quotes;
+    private final Random random;
+
+    public SyntheticUniverse(int currencyCount, double density, long seed) {
+        this.exchange = new BenchmarkExchange();
+        this.random = new Random(seed);
+        this.currencies = new String[currencyCount];
+        this.quotes = new ArrayList<>();
+
+        double[] usdPrices = new double[currencyCount];
+        currencies[0] = "USD";
+        usdPrices[0] = 1;
+        for (int i = 1; i < currencyCount; i++) {
+            currencies[i] = "C" + i;
+            usdPrices[i] = Math.exp(random.nextDouble() * 20 - 10);
+        }
+
+        for (int i = 0; i < currencyCount; i++) {
+            for (int j = i + 1; j < currencyCount; j++) {
+                // keep every currency tradeable against USD so USD cycles exist
+                if (i != 0 && random.nextDouble() >= density)
+                    continue;
+
+                quotes.add(new Quote(currencies[j], currencies[i], usdPrices[j] / usdPrices[i]));
+            }
+        }
+    }
+
+    /**
+     * Feeds both directions of every quote into the graph.
+     */
+    public void populate(RatesKnowledgeGraph graph) {
+        for (Quote quote : quotes) {
+            quote.reprice(random);
+            graph.updateSecurity(quote.bidMarket(exchange));
+            graph.updateSecurity(quote.askMarket(exchange));
+        }
+    }
+
+    public Quote randomQuote() {
+        return quotes.get(random.nextInt(quotes.size()));
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    public static class Quote {
+        public final String from;
+        public final String to;
+        public final String pair;
+        private final double mid;
+        public BigDecimal bid;
+        public BigDecimal ask;
+        public BigDecimal volume;
+
+        Quote(String from, String to, double mid) {
+            this.from = from;
+            this.to = to;
+            this.pair = from + ":" + to;
+            this.mid = mid;
+        }
+
+        /**
+         * Moves the quote by up to 0.5% around the mid price with a 0.1% - 0.3% spread.
+         */
+        public Quote reprice(Random random) {
+            double price = mid * (1 + (random.nextDouble() - 0.5) * 0.01);
+            double halfSpread = price * (0.0005 + random.nextDouble() * 0.001);
+            bid = new BigDecimal(price - halfSpread, MC);
+            ask = new BigDecimal(price + halfSpread, MC);
+            volume = new BigDecimal(3000 + random.nextInt(100000));
+            return this;
+        }
+
+        public Market bidMarket(Exchange exchange) {
+            return new Market(from, to, exchange).setRate(bid).setPrice(bid);
+        }
+
+        public Market askMarket(Exchange exchange) {
+            return new Market(to, from, exchange).setRate(BigDecimal.ONE.divide(ask, MC)).setPrice(ask);
+        }
+    }
+}
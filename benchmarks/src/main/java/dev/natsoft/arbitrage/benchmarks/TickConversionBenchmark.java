@@ -0,0 +1,54 @@
+package dev.natsoft.arbitrage.benchmarks;
+
+import dev.natsoft.arbitrage.RatesKnowledgeGraph;
+import dev.natsoft.arbitrage.TickerHandle;
+import dev.natsoft.arbitrage.detection.DetectionStrategy;
+import dev.natsoft.arbitrage.exchanges.Bitfinex;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Work done by {@link Bitfinex} on every tick: conversions, thresholds and the update of the bound ticker.
+ */
+@State(Scope.Thread)
+public class TickConversionBenchmark {
+    @Param({"50", "200"})
+    public int currencies;
+
+    @Param({"0.1"})
+    public double density;
+
+    @Param("42")
+    public long seed;
+
+    private SyntheticUniverse.Quote[] quotes;
+    private TickerHandle[] tickers;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticUniverse universe = new SyntheticUniverse(currencies, density, seed);
+        RatesKnowledgeGraph graph = new RatesKnowledgeGraph(DetectionStrategy.INDEXED);
+
+        quotes = new SyntheticUniverse.Quote[256];
+        tickers = new TickerHandle[quotes.length];
+        for (int i = 0; i < quotes.length; i++) {
+            quotes[i] = universe.randomQuote().reprice(universe.getRandom());
+            tickers[i] = graph.bindTicker(quotes[i].from, quotes[i].to, universe.exchange);
+        }
+    }
+
+    @Benchmark
+    public boolean handleTick() {
+        SyntheticUniverse.Quote quote = quotes[next];
+        TickerHandle ticker = tickers[next];
+        next = (next + 1) & (quotes.length - 1);
+
+        double bid = quote.bid.doubleValue();
+        double ask = quote.ask.doubleValue();
+        if (!Bitfinex.meetsThresholds(quote.volume.doubleValue(), bid, ask))
+            return false;
+
+        ticker.update(bid, ask);
+        return true;
+    }
+}
@@ -0,0 +1,42 @@
+package dev.natsoft.arbitrage.benchmarks;
+
+import dev.natsoft.arbitrage.ring.TickEvent;
+import dev.natsoft.arbitrage.ring.TickRing;
+import dev.natsoft.arbitrage.ring.WaitStrategy;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Publishing a tick into the {@link TickRing} of a feed, with a gating handler draining it on its own thread.
+ * The producer only waits once it laps the handler, it allocates nothing but the readiness check
+ * of a blocking wait.
+ */
+@State(Scope.Thread)
+public class TickRingBenchmark {
+    @Param({"1024", "8192"})
+    public int capacity;
+
+    @Param({"YIELD", "PARK", "BLOCKING"})
+    public WaitStrategy wait;
+
+    private TickRing ring;
+    private double bid;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ring = new TickRing(capacity, wait);
+        ring.addHandler("drain", (event, sequence) -> bid = event.bid, true);
+        ring.start();
+    }
+
+    @Benchmark
+    public long publish() {
+        long sequence = ring.next();
+        TickEvent event = ring.get(sequence);
+        event.bid = 1.0001;
+        event.ask = 1.0002;
+        event.volume = 3000;
+        event.receivedNanos = System.nanoTime();
+        ring.publish(sequence);
+        return sequence;
+    }
+}
@@ -0,0 +1,45 @@
+package dev.natsoft.arbitrage.benchmarks;
+
+import dev.natsoft.arbitrage.RatesKnowledgeGraph;
+import dev.natsoft.arbitrage.detection.DetectionStrategy;
+import dev.natsoft.arbitrage.model.TradeChain;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+
+/**
+ * Reads done on the best chain by reporting and execution.
+ */
+@State(Scope.Thread)
+public class TradeChainBenchmark {
+    @Param({"50"})
+    public int currencies;
+
+    @Param({"0.3"})
+    public double density;
+
+    @Param("42")
+    public long seed;
+
+    private TradeChain tradeChain;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticUniverse universe = new SyntheticUniverse(currencies, density, seed);
+        RatesKnowledgeGraph graph = new RatesKnowledgeGraph(DetectionStrategy.INDEXED);
+        universe.populate(graph);
+
+        tradeChain = graph.detectArbitrage(null)
+                .orElseThrow(() -> new IllegalStateException("No cycle through USD in the universe"));
+    }
+
+    @Benchmark
+    public BigDecimal getProfitability() {
+        return tradeChain.getProfitability();
+    }
+
+    @Benchmark
+    public String ilustratePath() {
+        return tradeChain.ilustratePath();
+    }
+}
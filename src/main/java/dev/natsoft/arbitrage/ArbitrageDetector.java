@@ -1,7 +1,11 @@
 package dev.natsoft.arbitrage;
 
+import dev.natsoft.arbitrage.Reports.TradeReport;
 import dev.natsoft.arbitrage.exchanges.Bitfinex;
 import dev.natsoft.arbitrage.exchanges.Exchange;
+import dev.natsoft.arbitrage.exchanges.ReplayExchange;
+import dev.natsoft.arbitrage.exchanges.SimulatedExchange;
+import dev.natsoft.arbitrage.metrics.MetricsServer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -10,14 +14,62 @@ public class ArbitrageDetector {
     private static RatesKnowledgeGraph ratesKnowledgeGraph;
     private static AssetsManager assetsManager;
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         ratesKnowledgeGraph = new RatesKnowledgeGraph();
+        MetricsServer metrics = MetricsServer.fromSystemProperties();
+        if (metrics != null) {
+            metrics.register("ingest", ratesKnowledgeGraph::getIngestion);
+            metrics.register("detection", ratesKnowledgeGraph::getDetectionTrigger);
+            metrics.register("health", ratesKnowledgeGraph::getFeedHealth);
+            metrics.register("journal.arbitrage", ratesKnowledgeGraph::getArbitrageJournal);
+            metrics.register("journal.reports", TradeReport::getJournal);
+        }
+
+        if (System.getProperty(ReplayExchange.FILE_PROPERTY) != null && Boolean.getBoolean(SimulatedExchange.PROPERTY)) {
+            // keep simulated trades out of the live report history
+            if (System.getProperty(TradeReport.FILE_PROPERTY) == null)
+                System.setProperty(TradeReport.FILE_PROPERTY, "tmp/simulated_trades_report.csv");
+
+            SimulatedExchange simulation = SimulatedExchange.fromSystemProperties();
+            assetsManager = new AssetsManager(ratesKnowledgeGraph);
+            if (metrics != null) {
+                metrics.register("execution", assetsManager::getExecutionScheduler);
+                metrics.register("ring", simulation::getTickRing);
+            }
+            simulation.startUpdating(ratesKnowledgeGraph);
+            simulation.awaitCompletion();
+            return;
+        }
+
+        if (System.getProperty(ReplayExchange.FILE_PROPERTY) != null) {
+            // backtest: detections are only reported, replay doesn't trade
+            ReplayExchange replay = ReplayExchange.fromSystemProperties();
+            if (metrics != null)
+                metrics.register("ring", replay::getTickRing);
+            replay.startUpdating(ratesKnowledgeGraph);
+            replay.awaitCompletion();
+            return;
+        }
+
         assetsManager = new AssetsManager(ratesKnowledgeGraph);
+        if (metrics != null)
+            metrics.register("execution", assetsManager::getExecutionScheduler);
+
+        Bitfinex bitfinex = new Bitfinex();
+        if (metrics != null) {
+            metrics.register("universe.bitfinex", bitfinex::getUniverse);
+            metrics.register("ring.bitfinex", bitfinex::getTickRing);
+        }
 
         List<Exchange> exchanges = new ArrayList<Exchange>() {{
-            add(new Bitfinex());
+            add(bitfinex);
         }};
 
+        GraphCheckpoint checkpoint = GraphCheckpoint.fromSystemProperties();
+        if (metrics != null)
+            metrics.register("checkpoint", () -> checkpoint);
+        ratesKnowledgeGraph.warmStart(checkpoint, exchanges);
+
         exchanges.forEach(exchange -> {
             exchange.startUpdating(ratesKnowledgeGraph);
         });
@@ -1,15 +1,19 @@
 package dev.natsoft.arbitrage;
 
+import dev.natsoft.arbitrage.Reports.TradeHistory;
 import dev.natsoft.arbitrage.Reports.TradeReport;
-import dev.natsoft.arbitrage.model.Market;
+import dev.natsoft.arbitrage.model.OpportunityBatch;
 import dev.natsoft.arbitrage.model.TradeChain;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.schedulers.Schedulers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.Math.max;
 
@@ -19,78 +23,101 @@ import static java.lang.Math.max;
 public class AssetsManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(AssetsManager.class);
     private final RatesKnowledgeGraph ratesKnowledgeGraph;
-    private final List<TradeReport> reports;
-    private BigDecimal startUSD;
-    private int tradesLeft;
-    private BigDecimal lastUSD;
+    private final TradeHistory history;
+    /**
+     * Chains still allowed to start, taken when the scheduler accepts one
+     */
+    private final AtomicInteger tradesLeft;
+    /**
+     * USD made by the completed chains from their own legs, the wallet balance also moves with the chains
+     * still running
+     */
+    private BigDecimal settledUSD;
+    private final ExecutionScheduler executionScheduler;
 
     public AssetsManager(RatesKnowledgeGraph ratesKnowledgeGraph) {
-        reports = TradeReport.readReportHistory();
-        tradesLeft = 50;
-        lastUSD = new BigDecimal(0);
-        startUSD = new BigDecimal(0);
+        history = TradeHistory.fromSystemProperties();
+        tradesLeft = new AtomicInteger(50);
+        settledUSD = new BigDecimal(0);
 
         this.ratesKnowledgeGraph = ratesKnowledgeGraph;
-        this.ratesKnowledgeGraph.getBestTradesStream()
-                .map(this::modifyChainToStartFromUSD)
-                .filter(this::shouldExecute)
-                .map(SimpleMarketTradeExecutor::new)
-                .mapOptional(SimpleMarketTradeExecutor::execute)
+        this.executionScheduler = ExecutionScheduler.fromSystemProperties(this::stillProfitable);
+        // decisions and reports run on a single thread of their own, in-flight trades never stall detection
+        Scheduler decisions = Schedulers.single();
+        this.ratesKnowledgeGraph.getOpportunitiesStream()
+                .observeOn(decisions)
+                .subscribe(this::decide);
+        executionScheduler.getExecutions()
+                .observeOn(decisions)
                 .subscribe(this::reportTrades);
     }
 
-    private TradeChain modifyChainToStartFromUSD(TradeChain tradeChain) {
-        if (!tradeChain.ilustratePath().contains("USD"))
-            return tradeChain;
+    public ExecutionScheduler getExecutionScheduler() {
+        return executionScheduler;
+    }
 
-        List<Market> markets = tradeChain.path.getEdgeList();
+    /**
+     * Revalidation of a chain that waited for its funds or markets, at our trade size.
+     */
+    private boolean stillProfitable(TradeChain tradeChain) {
+        return tradeChain.getExecutableProfitability(SimpleMarketTradeExecutor.FIRST_USD_AMOUNT)
+                .compareTo(TradeChain.PROFITABILITY_THRESHOLD) > 0;
+    }
 
-        String startAsset = markets.get(0).from;
-        while (!startAsset.equals("USD")) {
-            Market m = markets.remove(markets.size() - 1);
-            markets.add(0, m);
-            startAsset = markets.get(0).from;
+    /**
+     * Submits the best chain of the batch worth executing, falling back down the ranking
+     * when a better one is queued or rejected. The batch is ranked by the top of the books, so the chains are
+     * ranked again by what they make at our trade size first.
+     */
+    private void decide(OpportunityBatch batch) {
+        List<Candidate> candidates = new ArrayList<>(batch.ranked.size());
+        for (TradeChain ranked : batch.ranked) {
+            TradeChain tradeChain = ranked.startingFrom("USD");
+            candidates.add(new Candidate(tradeChain,
+                    tradeChain.getExecutableProfitability(SimpleMarketTradeExecutor.FIRST_USD_AMOUNT)));
         }
+        candidates.sort((a, b) -> b.executableProfitability.compareTo(a.executableProfitability));
 
-        return tradeChain;
+        for (Candidate candidate : candidates) {
+            if (!shouldExecute(candidate.tradeChain, candidate.executableProfitability))
+                continue;
+
+            ExecutionScheduler.Submission submission = executionScheduler.submit(candidate.tradeChain);
+            if (submission != ExecutionScheduler.Submission.REJECTED)
+                tradesLeft.decrementAndGet();
+            if (submission == ExecutionScheduler.Submission.STARTED)
+                return;
+        }
     }
 
-    private boolean shouldExecute(TradeChain tradeChain) {
-        if (tradesLeft == 0) {
+    /**
+     * @param executableProfitability profitability priced at our trade size where order books are available
+     */
+    private boolean shouldExecute(TradeChain tradeChain, BigDecimal executableProfitability) {
+        tradeChain.getTrace().decided();
+
+        if (tradesLeft.get() <= 0) {
             LOGGER.info("Trade count finished, exiting");
             System.exit(0);
         }
 
 
-        if (!tradeChain.ilustratePath().contains("USD"))
+        if (!tradeChain.passesThrough("USD"))
             return false;
 
-        String expectedPath = tradeChain.ilustratePath();
-
-        List<TradeReport> relevantReports = reports.stream()
-                .filter(rep -> rep.tradePath.equals(expectedPath))
-                .limit(5)
-                .collect(Collectors.toList());
-
-        double avgExpectedProfit = relevantReports.stream()
-                .mapToDouble(tradeReport -> new BigDecimal(tradeReport.expectedProfitability).doubleValue())
-                .average()
-                .orElse(1);
-
-        double avgActualProfit = relevantReports.stream()
-                .mapToDouble(tradeReport -> new BigDecimal(tradeReport.actualProfitability).doubleValue())
-                .average()
-                .orElse(1);
+        TradeHistory.PathStats stats = history.get(TradeHistory.pathKey(tradeChain.path.getEdgeList()));
+        double avgExpectedProfit = stats == null ? 1 : stats.getAverageExpected();
+        double avgActualProfit = stats == null ? 1 : stats.getAverageActual();
 
         BigDecimal threshold = BigDecimal.valueOf(max(avgExpectedProfit - avgActualProfit + 1, 1.001));
 //        BigDecimal threshold = BigDecimal.valueOf(0.992); // for quick testing
 
         LOGGER.info("Threshold: {}, TradeChain: {}", Constants.DF.format(threshold), tradeChain.ilustratePath());
 
-        if (tradeChain.getProfitability().compareTo(threshold) < 0)
+        if (executableProfitability.compareTo(threshold) < 0)
             return false;
 
-        if (lastUSD.compareTo(startUSD.subtract(new BigDecimal(10))) < 0) {
+        if (settledUSD.compareTo(new BigDecimal(-10)) < 0) {
             LOGGER.warn("Lost more than 10 USD, exit");
             System.exit(0);
         }
@@ -99,19 +126,23 @@ public class AssetsManager {
     }
 
     private void reportTrades(SimpleMarketTradeExecutor te) throws IOException {
-        tradesLeft -= 1;
-
-        if (startUSD.compareTo(new BigDecimal(0)) == 0) {
-            startUSD = te.getInitialUSD();
-        }
-
-        lastUSD = te.getFinalUSD();
+        settledUSD = settledUSD.add(te.firstUSDAmount.multiply(te.getActualProfitability().subtract(new BigDecimal(1))));
 
         TradeReport report = new TradeReport(te)
                 .saveReport()
                 .logReport();
+        te.tradeChain.getTrace().reported();
 
-        reports.add(0, report);
+        history.add(report);
+    }
+
+    private static final class Candidate {
+        final TradeChain tradeChain;
+        final BigDecimal executableProfitability;
 
+        Candidate(TradeChain tradeChain, BigDecimal executableProfitability) {
+            this.tradeChain = tradeChain;
+            this.executableProfitability = executableProfitability;
+        }
     }
 }
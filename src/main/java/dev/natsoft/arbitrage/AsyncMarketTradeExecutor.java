@@ -0,0 +1,121 @@
+package dev.natsoft.arbitrage;
+
+import dev.natsoft.arbitrage.exchanges.Exchange;
+import dev.natsoft.arbitrage.metrics.LatencyTrace;
+import dev.natsoft.arbitrage.model.Market;
+import dev.natsoft.arbitrage.model.TradeChain;
+import io.reactivex.rxjava3.disposables.Disposable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Executes the legs of a chain one after another like {@link SimpleMarketTradeExecutor}, but chains them
+ * on the fills of {@link dev.natsoft.arbitrage.exchanges.Exchange#tradeAsync} instead of parking a thread.
+ */
+public class AsyncMarketTradeExecutor extends SimpleMarketTradeExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncMarketTradeExecutor.class);
+    private static final long USD_UPDATE_TIMEOUT_SECONDS = 30;
+
+    private Consumer<Market> legFilled;
+    private BigDecimal finalAmount;
+    private CompletableFuture<BigDecimal> usdUpdate;
+
+    public AsyncMarketTradeExecutor(TradeChain tradeChain) {
+        super(tradeChain);
+        this.legFilled = market -> {
+        };
+    }
+
+    /**
+     * @param legFilled called with the market of every leg once its order is filled
+     */
+    public AsyncMarketTradeExecutor onLegFilled(Consumer<Market> legFilled) {
+        this.legFilled = legFilled;
+        return this;
+    }
+
+    /**
+     * @return this executor once the chain is traded and the final USD balance is known,
+     * completed exceptionally if any of the legs fails
+     */
+    public CompletableFuture<SimpleMarketTradeExecutor> executeAsync() {
+        LOGGER.info("Staring trades: {}", tradeChain.ilustratePath());
+
+        List<Market> markets = tradeChain.path.getEdgeList();
+        Market first = markets.get(0);
+        initialUSD = first.exchange.getUSDBalance();
+        LOGGER.info("Initial USD: {}", Constants.DF.format(initialUSD));
+
+        // the wallet update of the last leg may come before its fill, so updates are counted from the start
+        usdUpdate = awaitUSDUpdate(first.exchange, (int) markets.stream()
+                .filter(market -> market.from.equals("USD") || market.to.equals("USD"))
+                .count());
+
+        CompletableFuture<BigDecimal> amount = CompletableFuture.completedFuture(firstUSDAmount); // USD
+        LatencyTrace trace = tradeChain.getTrace();
+        for (int i = 0; i < markets.size(); i++) {
+            Market market = markets.get(i);
+            int leg = i;
+            amount = amount.thenCompose(a -> {
+                        trace.legSubmitted(leg, markets.size());
+                        return market.exchange.tradeAsync(market, a);
+                    })
+                    .thenApply(order -> {
+                        trace.legFilled(leg);
+                        legFilled.accept(market);
+                        return recordTrade(market, order);
+                    });
+        }
+
+        return amount
+                .thenCompose(a -> {
+                    finalAmount = a;
+                    LOGGER.info("Finished trading {}", tradeChain.ilustratePath());
+                    return usdUpdate;
+                })
+                .thenApply(usd -> {
+                    finalUSD = usd;
+                    LOGGER.info("After trading USD: {}", Constants.DF.format(finalUSD));
+                    return (SimpleMarketTradeExecutor) this;
+                })
+                .whenComplete((te, e) -> {
+                    if (e != null) {
+                        LOGGER.error("Error while trading: {}", e.getMessage(), e);
+                        usdUpdate.cancel(false);
+                    }
+                });
+    }
+
+    /**
+     * @param usdLegs legs trading USD, each of them updates the balance once
+     * @return USD balance after the update of the last of the legs, the current balance if it doesn't come in time
+     */
+    private static CompletableFuture<BigDecimal> awaitUSDUpdate(Exchange exchange, int usdLegs) {
+        CompletableFuture<BigDecimal> update = new CompletableFuture<>();
+        Disposable subscription = exchange.getUSDUpdatesStream()
+                .skip(Math.max(usdLegs - 1, 0))
+                .firstOrError()
+                .timeout(USD_UPDATE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .onErrorReturn(e -> exchange.getUSDBalance())
+                .subscribe(update::complete, update::completeExceptionally);
+        update.whenComplete((usd, e) -> subscription.dispose());
+        return update;
+    }
+
+    /**
+     * Other chains trade from the same wallet at the same time, so the chain is judged by its own legs only.
+     *
+     * @return USD received from the last leg per USD traded
+     */
+    @Override
+    public BigDecimal getActualProfitability() {
+        return finalAmount.divide(firstUSDAmount, 100, RoundingMode.HALF_DOWN);
+    }
+}
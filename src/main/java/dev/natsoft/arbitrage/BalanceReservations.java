@@ -0,0 +1,116 @@
+package dev.natsoft.arbitrage;
+
+import dev.natsoft.arbitrage.exchanges.Exchange;
+import dev.natsoft.arbitrage.model.Market;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Funds and markets held by the chains being executed.
+ * <p>
+ * A chain reserves the funds of its first leg against the available balance of the exchange,
+ * minus what the other chains already hold, and takes every market it trades exclusively,
+ * so that concurrent chains neither overdraw a wallet nor slip against each other's orders.
+ * The funds are held until the chain completes, the balance shows the spend only once the wallet update
+ * arrives and the chain waits for it at its end. All or nothing, under a single monitor.
+ */
+public class BalanceReservations {
+    private final Map<Exchange, Map<String, BigDecimal>> reservedFunds;
+    private final Set<String> reservedMarkets;
+
+    public BalanceReservations() {
+        this.reservedFunds = new HashMap<>();
+        this.reservedMarkets = new HashSet<>();
+    }
+
+    /**
+     * @param balance available balance of the first asset of the chain, looked up by the caller
+     *                so the exchange isn't queried under the monitor
+     * @return reservation of the chain or null if its funds or markets are held by other chains
+     */
+    public synchronized Reservation tryReserve(List<Market> markets, BigDecimal amount, BigDecimal balance) {
+        Market first = markets.get(0);
+        Map<String, BigDecimal> funds = reservedFunds.computeIfAbsent(first.exchange, e -> new HashMap<>());
+        BigDecimal reserved = funds.getOrDefault(first.from, BigDecimal.ZERO);
+        if (balance.subtract(reserved).compareTo(amount) < 0)
+            return null;
+
+        Set<String> keys = new HashSet<>();
+        for (Market market : markets) {
+            String key = marketKey(market);
+            if (reservedMarkets.contains(key) || !keys.add(key))
+                return null;
+        }
+
+        funds.put(first.from, reserved.add(amount));
+        reservedMarkets.addAll(keys);
+        return new Reservation(first.exchange, first.from, amount, keys);
+    }
+
+    /**
+     * Both directions of a pair trade the same book of the exchange.
+     */
+    private static String marketKey(Market market) {
+        String pair = market.from.compareTo(market.to) < 0
+                ? market.from + ":" + market.to
+                : market.to + ":" + market.from;
+        return System.identityHashCode(market.exchange) + "/" + pair;
+    }
+
+    private synchronized void releaseFunds(Reservation reservation) {
+        reservedFunds.get(reservation.exchange).merge(reservation.asset, reservation.amount.negate(), BigDecimal::add);
+    }
+
+    private synchronized void releaseMarket(String key) {
+        reservedMarkets.remove(key);
+    }
+
+    public synchronized int getReservedMarketCount() {
+        return reservedMarkets.size();
+    }
+
+    /**
+     * Holdings of a single chain, its markets are released as its legs fill.
+     */
+    public class Reservation {
+        private final Exchange exchange;
+        private final String asset;
+        private final BigDecimal amount;
+        private final Set<String> markets;
+        private boolean fundsReleased;
+
+        private Reservation(Exchange exchange, String asset, BigDecimal amount, Set<String> markets) {
+            this.exchange = exchange;
+            this.asset = asset;
+            this.amount = amount;
+            this.markets = markets;
+        }
+
+        /**
+         * Frees the market of a filled leg.
+         */
+        public synchronized void legFilled(Market market) {
+            if (markets.remove(marketKey(market)))
+                releaseMarket(marketKey(market));
+        }
+
+        /**
+         * Frees everything still held, on completion or failure of the chain.
+         */
+        public synchronized void release() {
+            if (!fundsReleased) {
+                fundsReleased = true;
+                releaseFunds(this);
+            }
+            for (String key : markets) {
+                releaseMarket(key);
+            }
+            markets.clear();
+        }
+    }
+}
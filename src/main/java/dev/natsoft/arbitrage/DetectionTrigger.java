@@ -0,0 +1,173 @@
+package dev.natsoft.arbitrage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Conflates ticks per symbol and hands the changed symbols to detection in batches.
+ * <p>
+ * A batch fires once it holds the maximal number of symbols, or when the maximal latency
+ * since its first tick expires, whichever comes first. Ticks arriving while detection runs
+ * are collected into the next batch, repeated ticks of a pending symbol are conflated.
+ * Only when the pending set reaches its hard cap new symbols are dropped.
+ * Configured with {@code -Darbitrage.trigger.maxLatencyMillis}, {@code -Darbitrage.trigger.maxBatch}
+ * and {@code -Darbitrage.trigger.maxPending}.
+ */
+public class DetectionTrigger {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DetectionTrigger.class);
+
+    private final long maxLatencyNanos;
+    private final int maxBatch;
+    private final int maxPending;
+    private final ReentrantLock lock;
+    private final Condition ready;
+    private final AtomicLong conflated;
+    private final AtomicLong dropped;
+    private final AtomicLong processed;
+    private Set<String> pending;
+    private Set<String> batch;
+    private long pendingTicks;
+    private long firstPendingNanos;
+    private Thread worker;
+
+    public DetectionTrigger(long maxLatencyMillis, int maxBatch, int maxPending) {
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+        this.maxBatch = maxBatch;
+        this.maxPending = maxPending;
+        this.lock = new ReentrantLock();
+        this.ready = lock.newCondition();
+        this.conflated = new AtomicLong();
+        this.dropped = new AtomicLong();
+        this.processed = new AtomicLong();
+        this.pending = new LinkedHashSet<>();
+        this.batch = new LinkedHashSet<>();
+    }
+
+    public static DetectionTrigger fromSystemProperties() {
+        return new DetectionTrigger(
+                Long.getLong("arbitrage.trigger.maxLatencyMillis", 100),
+                Integer.getInteger("arbitrage.trigger.maxBatch", 32),
+                Integer.getInteger("arbitrage.trigger.maxPending", 10_000)
+        );
+    }
+
+    public void onTick(String symbol) {
+        lock.lock();
+        try {
+            if (pending.contains(symbol)) {
+                conflated.incrementAndGet();
+                pendingTicks++;
+                return;
+            }
+
+            if (pending.size() >= maxPending) {
+                dropped.incrementAndGet();
+                return;
+            }
+
+            pending.add(symbol);
+            pendingTicks++;
+            if (pending.size() == 1) {
+                firstPendingNanos = System.nanoTime();
+                ready.signal();
+            } else if (pending.size() >= maxBatch) {
+                ready.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts the detection thread, feeding every batch of changed symbols to the given detection.
+     * Batches are reused, detection must not hold on to them. Does nothing if already started.
+     */
+    public synchronized void start(Consumer<Set<String>> detection) {
+        if (worker != null)
+            return;
+
+        worker = new Thread(() -> run(detection), "arbitrage-detection");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+    }
+
+    private void run(Consumer<Set<String>> detection) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                detection.accept(awaitBatch());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                LOGGER.error(e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private Set<String> awaitBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (pending.isEmpty()) {
+                ready.await();
+            }
+
+            long remaining = firstPendingNanos + maxLatencyNanos - System.nanoTime();
+            while (pending.size() < maxBatch && remaining > 0) {
+                remaining = ready.awaitNanos(remaining);
+            }
+
+            Set<String> full = pending;
+            pending = batch;
+            batch = full;
+            processed.addAndGet(pendingTicks);
+            pendingTicks = 0;
+            return full;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return ticks merged into an already pending symbol
+     */
+    public long getConflated() {
+        return conflated.get();
+    }
+
+    /**
+     * @return ticks rejected because the pending set was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return ticks, conflated ones included, handed over to detection
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DetectionTrigger{conflated=" + getConflated()
+                + ", dropped=" + getDropped()
+                + ", processed=" + getProcessed() + "}";
+    }
+}
@@ -0,0 +1,255 @@
+package dev.natsoft.arbitrage;
+
+import dev.natsoft.arbitrage.model.CycleId;
+import dev.natsoft.arbitrage.model.Market;
+import dev.natsoft.arbitrage.model.TradeChain;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Runs several trade chains at once as long as they don't compete for funds or markets, see {@link BalanceReservations}.
+ * <p>
+ * A chain that can't reserve what it needs waits in a small queue, replacing a queued chain of the same cycle,
+ * and is retried whenever another chain releases its holdings. Queued chains are revalidated before they start
+ * and dropped once they waited too long. Configured with {@code -Darbitrage.execution.maxConcurrent},
+ * {@code -Darbitrage.execution.maxQueued} and {@code -Darbitrage.execution.maxQueuedMillis}.
+ */
+public class ExecutionScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionScheduler.class);
+
+    private final BalanceReservations reservations;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxQueuedNanos;
+    private final Predicate<TradeChain> stillWorthIt;
+    private final Map<CycleId, Queued> queue;
+    private final Subject<SimpleMarketTradeExecutor> executions;
+    private final AtomicLong started;
+    private final AtomicLong rejected;
+    private final AtomicLong expired;
+    private int running;
+
+    public ExecutionScheduler(int maxConcurrent, int maxQueued, long maxQueuedMillis, Predicate<TradeChain> stillWorthIt) {
+        this.reservations = new BalanceReservations();
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.maxQueuedNanos = TimeUnit.MILLISECONDS.toNanos(maxQueuedMillis);
+        this.stillWorthIt = stillWorthIt;
+        this.queue = new LinkedHashMap<>();
+        this.executions = PublishSubject.<SimpleMarketTradeExecutor>create().toSerialized();
+        this.started = new AtomicLong();
+        this.rejected = new AtomicLong();
+        this.expired = new AtomicLong();
+    }
+
+    public static ExecutionScheduler fromSystemProperties(Predicate<TradeChain> stillWorthIt) {
+        return new ExecutionScheduler(
+                Integer.getInteger("arbitrage.execution.maxConcurrent", 4),
+                Integer.getInteger("arbitrage.execution.maxQueued", 16),
+                Long.getLong("arbitrage.execution.maxQueuedMillis", 1000),
+                stillWorthIt
+        );
+    }
+
+    /**
+     * Outcome of a submission.
+     */
+    public enum Submission {
+        STARTED,
+        /**
+         * Waits for funds or markets held by other chains
+         */
+        QUEUED,
+        /**
+         * Turned away as the queue is full
+         */
+        REJECTED
+    }
+
+    /**
+     * Starts the chain right away if it can reserve its funds and markets, queues it otherwise.
+     * Executions start outside of the monitor, they look up balances and place the first order.
+     */
+    public Submission submit(TradeChain tradeChain) {
+        BigDecimal balance = availableBalance(tradeChain);
+        BalanceReservations.Reservation reservation;
+        synchronized (this) {
+            dropExpired(System.nanoTime());
+            reservation = tryReserve(tradeChain, balance);
+            if (reservation == null) {
+                CycleId cycle = tradeChain.getCycleId();
+                if (!queue.containsKey(cycle) && queue.size() >= maxQueued) {
+                    rejected.incrementAndGet();
+                    LOGGER.debug("Execution queue full, rejecting {}", tradeChain.ilustratePath());
+                    return Submission.REJECTED;
+                }
+
+                // a newer detection of the same cycle supersedes the queued one
+                queue.remove(cycle);
+                queue.put(cycle, new Queued(tradeChain, System.nanoTime()));
+                return Submission.QUEUED;
+            }
+        }
+        start(tradeChain, reservation);
+        return Submission.STARTED;
+    }
+
+    private static BigDecimal availableBalance(TradeChain tradeChain) {
+        Market first = tradeChain.path.getEdgeList().get(0);
+        return first.exchange.getBalance(first.from);
+    }
+
+    /**
+     * Takes a running slot along with the reservation, under the monitor.
+     */
+    private BalanceReservations.Reservation tryReserve(TradeChain tradeChain, BigDecimal balance) {
+        if (running >= maxConcurrent)
+            return null;
+
+        BalanceReservations.Reservation reservation = reservations.tryReserve(
+                tradeChain.path.getEdgeList(), SimpleMarketTradeExecutor.FIRST_USD_AMOUNT, balance);
+        if (reservation != null) {
+            running++;
+            started.incrementAndGet();
+        }
+        return reservation;
+    }
+
+    private void start(TradeChain tradeChain, BalanceReservations.Reservation reservation) {
+        CompletableFuture<SimpleMarketTradeExecutor> execution;
+        try {
+            execution = new AsyncMarketTradeExecutor(tradeChain)
+                    .onLegFilled(reservation::legFilled)
+                    .executeAsync();
+        } catch (Exception e) {
+            LOGGER.error("Failed to start trading {}", tradeChain.ilustratePath(), e);
+            execution = new CompletableFuture<>();
+            execution.completeExceptionally(e);
+        }
+
+        // executions may fail synchronously, completing on another thread keeps finished() off the stack
+        // of the submitting one
+        execution.whenCompleteAsync((te, e) -> {
+            reservation.release();
+            finished();
+            if (te != null)
+                executions.onNext(te);
+        }, Schedulers.computation()::scheduleDirect);
+    }
+
+    /**
+     * Starts the queued chains that can go now. They are revalidated and their balances looked up
+     * outside of the monitor, a chain taken meanwhile by a concurrent call is skipped.
+     */
+    private void finished() {
+        List<Queued> waiting;
+        synchronized (this) {
+            running--;
+            dropExpired(System.nanoTime());
+            if (queue.isEmpty() || running >= maxConcurrent)
+                return;
+            waiting = new ArrayList<>(queue.values());
+        }
+
+        for (Queued queued : waiting) {
+            boolean worthIt = stillWorthIt.test(queued.tradeChain);
+            BigDecimal balance = worthIt ? availableBalance(queued.tradeChain) : null;
+            BalanceReservations.Reservation reservation;
+            synchronized (this) {
+                CycleId cycle = queued.tradeChain.getCycleId();
+                if (queue.get(cycle) != queued)
+                    continue;
+                if (!worthIt) {
+                    queue.remove(cycle);
+                    expired.incrementAndGet();
+                    continue;
+                }
+                if (running >= maxConcurrent)
+                    return;
+
+                reservation = tryReserve(queued.tradeChain, balance);
+                if (reservation == null)
+                    continue;
+                queue.remove(cycle);
+            }
+            start(queued.tradeChain, reservation);
+        }
+    }
+
+    private void dropExpired(long now) {
+        Iterator<Queued> waiting = queue.values().iterator();
+        while (waiting.hasNext()) {
+            if (now - waiting.next().since > maxQueuedNanos) {
+                waiting.remove();
+                expired.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return executors of the successfully traded chains
+     */
+    public Observable<SimpleMarketTradeExecutor> getExecutions() {
+        return executions;
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public long getStarted() {
+        return started.get();
+    }
+
+    /**
+     * @return chains turned away because the queue was full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return queued chains dropped as outdated or no longer profitable
+     */
+    public long getExpired() {
+        return expired.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionScheduler{running=" + getRunning()
+                + ", queued=" + getQueued()
+                + ", started=" + getStarted()
+                + ", rejected=" + getRejected()
+                + ", expired=" + getExpired() + "}";
+    }
+
+    private static class Queued {
+        final TradeChain tradeChain;
+        final long since;
+
+        Queued(TradeChain tradeChain, long since) {
+            this.tradeChain = tradeChain;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package dev.natsoft.arbitrage;
+
+import dev.natsoft.arbitrage.metrics.GapSketch;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Health of the rate feeds, judged from the gaps between their updates.
+ * <p>
+ * Every market keeps a {@link GapSketch} of its own update gaps, this keeps one more per exchange,
+ * fed by all the tickers of the exchange. A feed is as healthy as it is punctual: while the time since
+ * its last update stays within its usual 99th percentile gap (times a slack) the score is 1, past that
+ * it falls off as {@code expected / elapsed}. An edge scores the worse of its market and its exchange,
+ * so a stalled connection takes down all the edges of the exchange at once.
+ * Feeds with too few samples to judge score 1.
+ * Configured with {@code -Darbitrage.health.minScore} (edges scoring below it are skipped by detection,
+ * 0 disables the check), {@code -Darbitrage.health.slack}, {@code -Darbitrage.health.minGapMillis}
+ * and {@code -Darbitrage.health.minSamples}.
+ */
+public class FeedHealth {
+    private final RateMatrix rateMatrix;
+    private final double minScore;
+    private final double slack;
+    private final long minGapMillis;
+    private final long minSamples;
+    private final AtomicLong skipped;
+    private volatile ExchangeFeed[] exchanges;
+
+    public FeedHealth(RateMatrix rateMatrix, double minScore, double slack, long minGapMillis, long minSamples) {
+        this.rateMatrix = rateMatrix;
+        this.minScore = minScore;
+        this.slack = slack;
+        this.minGapMillis = minGapMillis;
+        this.minSamples = minSamples;
+        this.skipped = new AtomicLong();
+        this.exchanges = new ExchangeFeed[0];
+    }
+
+    public static FeedHealth fromSystemProperties(RateMatrix rateMatrix) {
+        return new FeedHealth(
+                rateMatrix,
+                Double.parseDouble(System.getProperty("arbitrage.health.minScore", "0.25")),
+                Double.parseDouble(System.getProperty("arbitrage.health.slack", "2")),
+                Long.getLong("arbitrage.health.minGapMillis", 1000),
+                Long.getLong("arbitrage.health.minSamples", 32)
+        );
+    }
+
+    /**
+     * Starts tracking the exchange, must be called under the topology lock before its first update.
+     */
+    void addExchange(int exchange) {
+        if (exchange < exchanges.length)
+            return;
+
+        ExchangeFeed[] grown = Arrays.copyOf(exchanges, exchange + 1);
+        for (int i = exchanges.length; i < grown.length; i++) {
+            grown[i] = new ExchangeFeed();
+        }
+        exchanges = grown;
+    }
+
+    /**
+     * Records an update of the market of the quote.
+     */
+    void onQuoteUpdate(int quote, long previousMillis, long now) {
+        if (previousMillis != 0)
+            rateMatrix.getQuoteMarket(quote).onUpdate(previousMillis, now);
+    }
+
+    /**
+     * Records an update received from the exchange, once per tick however many quotes it touched.
+     */
+    void onExchangeUpdate(int exchange, long now) {
+        ExchangeFeed feed = exchanges[exchange];
+        long previous = feed.updatedAt.getAndSet(now);
+        if (previous != 0)
+            feed.gaps.record(now - previous);
+    }
+
+    /**
+     * @return health of the best quote of the edge between 0 (silent) and 1 (punctual)
+     */
+    public double score(int edge, long now) {
+        int quote = rateMatrix.getBestQuote(edge);
+        double score = score(rateMatrix.getQuoteMarket(quote).getUpdateGaps(), now - rateMatrix.getQuoteUpdatedAt(quote));
+
+        ExchangeFeed[] feeds = exchanges;
+        int exchange = rateMatrix.getQuoteExchange(quote);
+        if (exchange < feeds.length) {
+            ExchangeFeed feed = feeds[exchange];
+            score = Math.min(score, score(feed.gaps, now - feed.updatedAt.get()));
+        }
+        return score;
+    }
+
+    private double score(GapSketch gaps, long elapsed) {
+        if (gaps.getSamples() < minSamples)
+            return 1;
+
+        double expected = Math.max(minGapMillis, gaps.getP99() * slack);
+        return elapsed <= expected ? 1 : expected / elapsed;
+    }
+
+    /**
+     * @return false if any edge of the cycle scores below the minimal score
+     */
+    public boolean isHealthy(int[] cycle, long now) {
+        if (minScore <= 0)
+            return true;
+
+        for (int edge : cycle) {
+            if (score(edge, now) < minScore) {
+                skipped.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public GapSketch getExchangeGaps(int exchange) {
+        return exchanges[exchange].gaps;
+    }
+
+    /**
+     * @return candidate cycles skipped because of an unhealthy edge
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("FeedHealth{skipped=").append(getSkipped());
+        ExchangeFeed[] feeds = exchanges;
+        for (int exchange = 0; exchange < feeds.length; exchange++) {
+            out.append(", exchange ").append(exchange).append('=').append(feeds[exchange].gaps);
+        }
+        return out.append('}').toString();
+    }
+
+    private static class ExchangeFeed {
+        final GapSketch gaps = new GapSketch();
+        final AtomicLong updatedAt = new AtomicLong();
+    }
+}
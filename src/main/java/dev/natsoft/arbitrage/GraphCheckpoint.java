@@ -0,0 +1,226 @@
+package dev.natsoft.arbitrage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped checkpoint of the {@link RateMatrix}, so that a restarted process doesn't have to wait
+ * for every leg to tick again before detecting anything.
+ * <p>
+ * Holds the currencies, the exchanges by name and every quote with its rate, price, log weight and
+ * update time; edges, the graph and the cycle index are derived from the quotes when they are added back.
+ * Restored quotes keep their original update times, so they are stale to detection by their age like
+ * before the restart. Checkpoints older than the maximal age only restore the topology.
+ * Written to a temporary file and moved over the previous one, a checkpoint failing its checksum is ignored.
+ * Configured with {@code -Darbitrage.checkpoint.file}, {@code -Darbitrage.checkpoint.periodSeconds}
+ * (0 disables checkpointing) and {@code -Darbitrage.checkpoint.maxAgeSeconds}.
+ */
+public class GraphCheckpoint {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphCheckpoint.class);
+    public static final String FILE_PROPERTY = "arbitrage.checkpoint.file";
+    public static final String PERIOD_PROPERTY = "arbitrage.checkpoint.periodSeconds";
+    public static final String MAX_AGE_PROPERTY = "arbitrage.checkpoint.maxAgeSeconds";
+    private static final int MAGIC = 0x47524350;
+    private static final int VERSION = 1;
+    private static final int QUOTE_BYTES = 3 * Integer.BYTES + 3 * Double.BYTES + Long.BYTES;
+
+    private final Path file;
+    private final long periodMillis;
+    private final long maxAgeMillis;
+    private final AtomicLong saves;
+    private volatile long lastSaveMicros;
+    private volatile int restoredQuotes;
+
+    public GraphCheckpoint(Path file, long periodMillis, long maxAgeMillis) {
+        this.file = file;
+        this.periodMillis = periodMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.saves = new AtomicLong();
+    }
+
+    public static GraphCheckpoint fromSystemProperties() {
+        return new GraphCheckpoint(
+                Paths.get(System.getProperty(FILE_PROPERTY, "tmp/graph.checkpoint")),
+                TimeUnit.SECONDS.toMillis(Long.getLong(PERIOD_PROPERTY, 10)),
+                TimeUnit.SECONDS.toMillis(Long.getLong(MAX_AGE_PROPERTY, 600))
+        );
+    }
+
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+
+    /**
+     * @return true if the rates of a checkpoint saved at the given time are still worth restoring
+     */
+    public boolean isRecent(long savedAt, long now) {
+        return now - savedAt <= maxAgeMillis;
+    }
+
+    void write(State state) throws IOException {
+        long started = System.nanoTime();
+        byte[][] exchanges = encode(state.exchanges);
+        byte[][] currencies = encode(state.currencies);
+        long size = 3 * Integer.BYTES + Long.BYTES
+                + encodedSize(exchanges) + encodedSize(currencies)
+                + (long) state.quoteCount * QUOTE_BYTES + Long.BYTES;
+
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(MAGIC).putInt(VERSION).putLong(state.savedAt);
+            put(out, exchanges);
+            put(out, currencies);
+            out.putInt(state.quoteCount);
+            for (int quote = 0; quote < state.quoteCount; quote++) {
+                out.putInt(state.from[quote]).putInt(state.to[quote]).putInt(state.exchange[quote]);
+                out.putDouble(state.rates[quote]).putDouble(state.prices[quote]).putDouble(state.logWeights[quote]);
+                out.putLong(state.updatedAt[quote]);
+            }
+            out.putLong(checksum(out, out.position()));
+            out.force();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        saves.incrementAndGet();
+        lastSaveMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started);
+    }
+
+    /**
+     * @return the last checkpoint or null if there is none or it's damaged
+     */
+    State read() throws IOException {
+        if (!Files.exists(file))
+            return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 5 * Integer.BYTES + 2 * Long.BYTES)
+                return null;
+
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                LOGGER.warn("Ignoring checkpoint {} of unknown format", file);
+                return null;
+            }
+            if (in.getLong((int) size - Long.BYTES) != checksum(in, (int) size - Long.BYTES)) {
+                LOGGER.warn("Ignoring damaged checkpoint {}", file);
+                return null;
+            }
+
+            long savedAt = in.getLong();
+            String[] exchanges = getStrings(in);
+            String[] currencies = getStrings(in);
+            State state = new State(savedAt, exchanges, currencies, in.getInt());
+            for (int quote = 0; quote < state.quoteCount; quote++) {
+                state.from[quote] = in.getInt();
+                state.to[quote] = in.getInt();
+                state.exchange[quote] = in.getInt();
+                state.rates[quote] = in.getDouble();
+                state.prices[quote] = in.getDouble();
+                state.logWeights[quote] = in.getDouble();
+                state.updatedAt[quote] = in.getLong();
+            }
+            return state;
+        }
+    }
+
+    void onRestored(int quotes) {
+        restoredQuotes = quotes;
+    }
+
+    private static long checksum(ByteBuffer buffer, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(0);
+        body.limit(length);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return crc.getValue();
+    }
+
+    private static byte[][] encode(String[] strings) {
+        byte[][] encoded = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    private static long encodedSize(byte[][] strings) {
+        long size = Integer.BYTES;
+        for (byte[] string : strings) {
+            size += Short.BYTES + string.length;
+        }
+        return size;
+    }
+
+    private static void put(ByteBuffer out, byte[][] strings) {
+        out.putInt(strings.length);
+        for (byte[] string : strings) {
+            out.putShort((short) string.length).put(string);
+        }
+    }
+
+    private static String[] getStrings(ByteBuffer in) {
+        String[] strings = new String[in.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] string = new byte[in.getShort()];
+            in.get(string);
+            strings[i] = new String(string, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    @Override
+    public String toString() {
+        return "GraphCheckpoint{saves=" + saves.get() + ", lastSaveMicros=" + lastSaveMicros + ", restoredQuotes=" + restoredQuotes + "}";
+    }
+
+    /**
+     * Quotes of the matrix in the order they were added, so that adding them back recreates the same edges.
+     */
+    static class State {
+        final long savedAt;
+        final String[] exchanges;
+        final String[] currencies;
+        final int quoteCount;
+        final int[] from;
+        final int[] to;
+        final int[] exchange;
+        final double[] rates;
+        final double[] prices;
+        final double[] logWeights;
+        final long[] updatedAt;
+
+        State(long savedAt, String[] exchanges, String[] currencies, int quoteCount) {
+            this.savedAt = savedAt;
+            this.exchanges = exchanges;
+            this.currencies = currencies;
+            this.quoteCount = quoteCount;
+            from = new int[quoteCount];
+            to = new int[quoteCount];
+            exchange = new int[quoteCount];
+            rates = new double[quoteCount];
+            prices = new double[quoteCount];
+            logWeights = new double[quoteCount];
+            updatedAt = new long[quoteCount];
+        }
+    }
+}
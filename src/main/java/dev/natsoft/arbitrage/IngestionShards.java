@@ -0,0 +1,65 @@
+package dev.natsoft.arbitrage;
+
+import dev.natsoft.arbitrage.metrics.LatencyStage;
+import dev.natsoft.arbitrage.ring.TickHandler;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies ticks to the {@link RateMatrix} on shard handlers of the {@link dev.natsoft.arbitrage.ring.TickRing},
+ * one per stripe of the matrix.
+ * <p>
+ * Every shard sees all the ticks but applies only those of its stripe, so every edge has a single writer
+ * and the shards only share the cache lines of the snapshot readers.
+ * Configured with {@code -Darbitrage.ingest.shards}.
+ */
+public class IngestionShards {
+    public static final String SHARDS_PROPERTY = "arbitrage.ingest.shards";
+
+    private final int shardCount;
+    private final AtomicLong[] applied;
+
+    public IngestionShards(int shardCount) {
+        if (shardCount < 1)
+            throw new IllegalArgumentException("At least one shard is needed: " + shardCount);
+
+        this.shardCount = shardCount;
+        this.applied = new AtomicLong[shardCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            applied[shard] = new AtomicLong();
+        }
+    }
+
+    public static IngestionShards fromSystemProperties() {
+        return new IngestionShards(Integer.getInteger(SHARDS_PROPERTY, 1));
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @return handler applying the ticks of the stripe of the shard to the graph
+     */
+    TickHandler handler(RatesKnowledgeGraph graph, int shard) {
+        AtomicLong counter = applied[shard];
+        return (event, sequence) -> {
+            TickerHandle ticker = event.ticker;
+            if (ticker == null || (shardCount > 1 && ticker.stripe != shard))
+                return;
+
+            graph.applyTicker(ticker, event.bid, event.ask, event.receivedNanos);
+            LatencyStage.TICK_TO_GRAPH.record(System.nanoTime() - event.receivedNanos);
+            counter.lazySet(counter.get() + 1);
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("IngestionShards{shards=").append(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            out.append(", shard ").append(shard).append("=[applied=").append(applied[shard].get()).append(']');
+        }
+        return out.append('}').toString();
+    }
+}
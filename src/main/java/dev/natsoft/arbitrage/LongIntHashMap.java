@@ -0,0 +1,76 @@
+package dev.natsoft.arbitrage;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map of long keys to non-negative int values, lookups neither box nor allocate.
+ */
+class LongIntHashMap {
+    private static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize * 2 - 1, 8)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return value of the key or -1 if there is none
+     */
+    int get(long key) {
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            if (values[slot] == MISSING)
+                return MISSING;
+            if (keys[slot] == key)
+                return values[slot];
+        }
+    }
+
+    void put(long key, int value) {
+        if ((size + 1) * 2 > keys.length)
+            grow();
+
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            if (values[slot] == MISSING) {
+                keys[slot] = key;
+                values[slot] = value;
+                size++;
+                return;
+            }
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(values, MISSING);
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != MISSING)
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+}
@@ -0,0 +1,587 @@
+package dev.natsoft.arbitrage;
+
+import dev.natsoft.arbitrage.exchanges.Exchange;
+import dev.natsoft.arbitrage.model.Market;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Dense, int indexed storage of the exchange rates.
+ * <p>
+ * Currencies and exchanges are interned to ids. Every market of an exchange is a quote, the quotes of all
+ * exchanges between the same two currencies share one edge, which carries the rate of the best fresh quote.
+ * Detection only ever sees the edges, so adding exchanges doesn't multiply the cycles.
+ * Quotes are found by {@code (from, to, exchange)} in a primitive hash map, all per quote and per edge state
+ * lives in flat primitive arrays so that rate updates and detection don't allocate.
+ * <p>
+ * Edges are striped by their currency pair, both directions of a pair and all its quotes share a stripe,
+ * so that each stripe can have a single writer and stripes are written in parallel. Rate writes are published
+ * under the {@link StampedLock} of their stripe acting as a seqlock, every write bumps the version of
+ * the stripe and of the written edge. Readers copy the rates into a {@link RateSnapshot} optimistically
+ * and retry if a write to any of the stripes got in between, so a snapshot is consistent across all stripes.
+ * Topology (currencies, edges, adjacency) changes are guarded by the owning {@link RatesKnowledgeGraph}.
+ */
+public class RateMatrix {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int OPTIMISTIC_ATTEMPTS = 8;
+
+    private final Stripe[] stripes;
+    private final long[] readStamps;
+    private final long freshnessMillis;
+
+    private final Map<String, Integer> currencyIds;
+    private String[] currencies;
+    private int[][] outEdges;
+    private int[] outDegree;
+    private int currencyCount;
+
+    private final Map<Exchange, Integer> exchangeIds;
+    private final LongIntHashMap quoteIds;
+    private Market[] quoteMarkets;
+    private int[] quoteEdges;
+    private int[] quoteExchanges;
+    private double[] quoteRates;
+    private double[] quotePrices;
+    private double[] quoteLogWeights;
+    private double[] quoteFeeLogs;
+    private long[] quoteUpdatedAt;
+    private int quoteCount;
+
+    private int[][] edgeQuotes;
+    private int[] edgeQuoteCount;
+    private int[] bestQuotes;
+    private int[] edgeFrom;
+    private int[] edgeTo;
+    private int[] edgeStripes;
+    private double[] rates;
+    private double[] prices;
+    private double[] logWeights;
+    private double[] feeLogs;
+    private long[] updatedAt;
+    private long[] edgeVersions;
+    private int edgeCount;
+
+    /**
+     * @param freshnessMillis age after which a quote loses its edge to a fresher quote of another exchange
+     */
+    public RateMatrix(long freshnessMillis) {
+        this(freshnessMillis, 1);
+    }
+
+    /**
+     * @param stripes number of stripes the edges are spread over, writers of different stripes don't block each other
+     */
+    public RateMatrix(long freshnessMillis, int stripes) {
+        this.stripes = new Stripe[stripes];
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            this.stripes[stripe] = new Stripe();
+        }
+        readStamps = new long[stripes];
+        this.freshnessMillis = freshnessMillis;
+
+        currencyIds = new HashMap<>();
+        currencies = new String[INITIAL_CAPACITY];
+        outEdges = new int[INITIAL_CAPACITY][];
+        outDegree = new int[INITIAL_CAPACITY];
+
+        exchangeIds = new IdentityHashMap<>();
+        quoteIds = new LongIntHashMap(INITIAL_CAPACITY);
+        quoteMarkets = new Market[INITIAL_CAPACITY];
+        quoteEdges = new int[INITIAL_CAPACITY];
+        quoteExchanges = new int[INITIAL_CAPACITY];
+        quoteRates = new double[INITIAL_CAPACITY];
+        quotePrices = new double[INITIAL_CAPACITY];
+        quoteLogWeights = new double[INITIAL_CAPACITY];
+        quoteFeeLogs = new double[INITIAL_CAPACITY];
+        quoteUpdatedAt = new long[INITIAL_CAPACITY];
+
+        edgeQuotes = new int[INITIAL_CAPACITY][];
+        edgeQuoteCount = new int[INITIAL_CAPACITY];
+        bestQuotes = new int[INITIAL_CAPACITY];
+        edgeFrom = new int[INITIAL_CAPACITY];
+        edgeTo = new int[INITIAL_CAPACITY];
+        edgeStripes = new int[INITIAL_CAPACITY];
+        rates = new double[INITIAL_CAPACITY];
+        prices = new double[INITIAL_CAPACITY];
+        logWeights = new double[INITIAL_CAPACITY];
+        feeLogs = new double[INITIAL_CAPACITY];
+        updatedAt = new long[INITIAL_CAPACITY];
+        edgeVersions = new long[INITIAL_CAPACITY];
+    }
+
+    /**
+     * @return id of the currency, interning it if it wasn't seen before
+     */
+    public int currencyId(String currency) {
+        Integer id = currencyIds.get(currency);
+        if (id != null)
+            return id;
+
+        if (currencyCount == currencies.length) {
+            int capacity = currencies.length * 2;
+            currencies = Arrays.copyOf(currencies, capacity);
+            outEdges = Arrays.copyOf(outEdges, capacity);
+            outDegree = Arrays.copyOf(outDegree, capacity);
+        }
+
+        currencies[currencyCount] = currency;
+        outEdges[currencyCount] = new int[4];
+        currencyIds.put(currency, currencyCount);
+        return currencyCount++;
+    }
+
+    /**
+     * @return id of the currency or -1 if it's unknown
+     */
+    public int findCurrency(String currency) {
+        return currencyIds.getOrDefault(currency, -1);
+    }
+
+    public String currency(int id) {
+        return currencies[id];
+    }
+
+    public int getCurrencyCount() {
+        return currencyCount;
+    }
+
+    /**
+     * @return id of the exchange, interning it if it wasn't seen before
+     */
+    public int exchangeId(Exchange exchange) {
+        return exchangeIds.computeIfAbsent(exchange, e -> exchangeIds.size());
+    }
+
+    /**
+     * @return id of the edge between given currencies or -1 if there is none
+     */
+    public int findEdge(int from, int to) {
+        int[] edges = outEdges[from];
+        for (int i = 0; i < outDegree[from]; i++) {
+            if (edgeTo[edges[i]] == to)
+                return edges[i];
+        }
+        return -1;
+    }
+
+    /**
+     * @return id of the quote of the exchange between given currencies or -1 if there is none
+     */
+    public int findQuote(int from, int to, int exchange) {
+        return quoteIds.get(quoteKey(from, to, exchange));
+    }
+
+    private static long quoteKey(int from, int to, int exchange) {
+        return (long) from << 40 | (long) to << 16 | exchange;
+    }
+
+    /**
+     * Adds the market as a quote of the edge between its currencies, adding the edge if it's the first one.
+     *
+     * @return id of the new quote
+     */
+    public int addQuote(int from, int to, int exchange, Market market) {
+        int edge = findEdge(from, to);
+
+        // growing swaps the arrays, writers of no stripe must be in the middle of an update
+        for (Stripe stripe : stripes) {
+            stripe.stamp = stripe.lock.writeLock();
+        }
+        int quote;
+        try {
+            if (edge < 0)
+                edge = newEdge(from, to);
+
+            if (quoteCount == quoteMarkets.length) {
+                int capacity = quoteMarkets.length * 2;
+                quoteMarkets = Arrays.copyOf(quoteMarkets, capacity);
+                quoteEdges = Arrays.copyOf(quoteEdges, capacity);
+                quoteExchanges = Arrays.copyOf(quoteExchanges, capacity);
+                quoteRates = Arrays.copyOf(quoteRates, capacity);
+                quotePrices = Arrays.copyOf(quotePrices, capacity);
+                quoteLogWeights = Arrays.copyOf(quoteLogWeights, capacity);
+                quoteFeeLogs = Arrays.copyOf(quoteFeeLogs, capacity);
+                quoteUpdatedAt = Arrays.copyOf(quoteUpdatedAt, capacity);
+            }
+
+            quote = quoteCount;
+            quoteMarkets[quote] = market;
+            quoteEdges[quote] = edge;
+            quoteExchanges[quote] = exchange;
+            // we will pay the taker fee to place a market order
+            quoteFeeLogs[quote] = Math.log1p(-market.exchange.getTakerFee().doubleValue());
+            quoteCount++;
+
+            if (edgeQuoteCount[edge] == edgeQuotes[edge].length)
+                edgeQuotes[edge] = Arrays.copyOf(edgeQuotes[edge], edgeQuoteCount[edge] * 2);
+            edgeQuotes[edge][edgeQuoteCount[edge]++] = quote;
+            if (bestQuotes[edge] < 0) {
+                bestQuotes[edge] = quote;
+                feeLogs[edge] = quoteFeeLogs[quote];
+            }
+        } finally {
+            for (int stripe = stripes.length - 1; stripe >= 0; stripe--) {
+                stripes[stripe].lock.unlockWrite(stripes[stripe].stamp);
+            }
+        }
+        quoteIds.put(quoteKey(from, to, exchange), quote);
+        market.bind(this, quote);
+
+        return quote;
+    }
+
+    private int newEdge(int from, int to) {
+        if (edgeCount == edgeFrom.length) {
+            int capacity = edgeFrom.length * 2;
+            edgeQuotes = Arrays.copyOf(edgeQuotes, capacity);
+            edgeQuoteCount = Arrays.copyOf(edgeQuoteCount, capacity);
+            bestQuotes = Arrays.copyOf(bestQuotes, capacity);
+            edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+            edgeTo = Arrays.copyOf(edgeTo, capacity);
+            edgeStripes = Arrays.copyOf(edgeStripes, capacity);
+            rates = Arrays.copyOf(rates, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            logWeights = Arrays.copyOf(logWeights, capacity);
+            feeLogs = Arrays.copyOf(feeLogs, capacity);
+            updatedAt = Arrays.copyOf(updatedAt, capacity);
+            edgeVersions = Arrays.copyOf(edgeVersions, capacity);
+        }
+
+        int edge = edgeCount;
+        edgeQuotes[edge] = new int[1];
+        bestQuotes[edge] = -1;
+        edgeFrom[edge] = from;
+        edgeTo[edge] = to;
+        edgeStripes[edge] = stripeOf(from, to);
+        edgeCount++;
+
+        if (outDegree[from] == outEdges[from].length)
+            outEdges[from] = Arrays.copyOf(outEdges[from], outDegree[from] * 2);
+        outEdges[from][outDegree[from]++] = edge;
+
+        return edge;
+    }
+
+    private int stripeOf(int from, int to) {
+        return Math.floorMod(31 * Math.min(from, to) + Math.max(from, to), stripes.length);
+    }
+
+    /**
+     * Starts publishing rate updates to the stripe, writes of one stamp become visible to snapshots together.
+     */
+    public long beginWrite(int stripe) {
+        return stripes[stripe].lock.writeLock();
+    }
+
+    public void endWrite(int stripe, long stamp) {
+        stripes[stripe].lock.unlockWrite(stamp);
+    }
+
+    /**
+     * Updates the quote and reprices its edge from the best fresh quote.
+     * Must be called between {@link #beginWrite(int)} and {@link #endWrite(int, long)} of the stripe of the quote.
+     *
+     * @param logWeight negated natural log of the rate, see {@link #getLogWeight(int)}
+     */
+    public void update(int quote, double rate, double price, double logWeight, long timestamp) {
+        quoteRates[quote] = rate;
+        quotePrices[quote] = price;
+        quoteLogWeights[quote] = logWeight;
+        quoteUpdatedAt[quote] = timestamp;
+
+        int edge = quoteEdges[quote];
+        int best = edgeQuoteCount[edge] == 1 ? quote : bestQuote(edge, quote, timestamp);
+        bestQuotes[edge] = best;
+        rates[edge] = quoteRates[best];
+        prices[edge] = quotePrices[best];
+        logWeights[edge] = quoteLogWeights[best];
+        feeLogs[edge] = quoteFeeLogs[best];
+        updatedAt[edge] = quoteUpdatedAt[best];
+        edgeVersions[edge]++;
+        stripes[edgeStripes[edge]].version++;
+    }
+
+    /**
+     * @return the most profitable fresh quote of the edge, the updated one if all others are stale
+     */
+    private int bestQuote(int edge, int updated, long now) {
+        int best = updated;
+        double bestProfitLog = quoteFeeLogs[updated] - quoteLogWeights[updated];
+        int[] quotes = edgeQuotes[edge];
+        for (int i = 0; i < edgeQuoteCount[edge]; i++) {
+            int quote = quotes[i];
+            if (quote == updated || now - quoteUpdatedAt[quote] > freshnessMillis)
+                continue;
+
+            double profitLog = quoteFeeLogs[quote] - quoteLogWeights[quote];
+            if (profitLog > bestProfitLog) {
+                best = quote;
+                bestProfitLog = profitLog;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Copies the current rates into the given snapshot without blocking writers,
+     * falls back to read locks only if writers keep invalidating the copy.
+     */
+    public synchronized RateSnapshot snapshot(RateSnapshot into) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            if (!tryOptimisticRead())
+                continue;
+
+            try {
+                copyInto(into);
+            } catch (IndexOutOfBoundsException e) {
+                // arrays got swapped by a concurrent addQuote, validation fails below
+            }
+
+            if (validate())
+                return into;
+        }
+
+        readLock();
+        try {
+            copyInto(into);
+        } finally {
+            unlockRead();
+        }
+        return into;
+    }
+
+    /**
+     * Versions only grow, so the sum changes with every write to any of the edges.
+     *
+     * @return sum of the versions of the given edges, each of them read consistently
+     */
+    public long sumEdgeVersions(int[] edges) {
+        long sum = 0;
+        for (int edge : edges) {
+            sum += getEdgeVersionConsistent(edge);
+        }
+        return sum;
+    }
+
+    private long getEdgeVersionConsistent(int edge) {
+        // stripes of the edges never change, an outdated array still has them right
+        StampedLock lock = stripes[edgeStripes[edge]].lock;
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            long edgeVersion = edgeVersions[edge];
+            if (lock.validate(stamp))
+                return edgeVersion;
+        }
+
+        stamp = lock.readLock();
+        try {
+            return edgeVersions[edge];
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Copies the state of the first quotes, consistent like {@link #snapshot(RateSnapshot)}.
+     */
+    public synchronized void copyQuotes(int count, double[] rates, double[] prices, double[] logWeights, long[] updatedAt) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            if (!tryOptimisticRead())
+                continue;
+
+            try {
+                copyQuotesInto(count, rates, prices, logWeights, updatedAt);
+            } catch (IndexOutOfBoundsException e) {
+                // arrays got swapped by a concurrent addQuote, validation fails below
+            }
+
+            if (validate())
+                return;
+        }
+
+        readLock();
+        try {
+            copyQuotesInto(count, rates, prices, logWeights, updatedAt);
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Starts an optimistic read of all the stripes, the stamps are kept for {@link #validate()}.
+     *
+     * @return false if any of the stripes is being written
+     */
+    private boolean tryOptimisticRead() {
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            readStamps[stripe] = stripes[stripe].lock.tryOptimisticRead();
+            if (readStamps[stripe] == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if no stripe was written since {@link #tryOptimisticRead()}
+     */
+    private boolean validate() {
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            if (!stripes[stripe].lock.validate(readStamps[stripe]))
+                return false;
+        }
+        return true;
+    }
+
+    private void readLock() {
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            readStamps[stripe] = stripes[stripe].lock.readLock();
+        }
+    }
+
+    private void unlockRead() {
+        for (int stripe = stripes.length - 1; stripe >= 0; stripe--) {
+            stripes[stripe].lock.unlockRead(readStamps[stripe]);
+        }
+    }
+
+    private void copyQuotesInto(int count, double[] rates, double[] prices, double[] logWeights, long[] updatedAt) {
+        System.arraycopy(quoteRates, 0, rates, 0, count);
+        System.arraycopy(quotePrices, 0, prices, 0, count);
+        System.arraycopy(quoteLogWeights, 0, logWeights, 0, count);
+        System.arraycopy(quoteUpdatedAt, 0, updatedAt, 0, count);
+    }
+
+    private void copyInto(RateSnapshot into) {
+        long version = 0;
+        for (Stripe stripe : stripes) {
+            version += stripe.version;
+        }
+        into.copy(version, edgeCount, logWeights, feeLogs, updatedAt, edgeVersions);
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public int getOutDegree(int currency) {
+        return outDegree[currency];
+    }
+
+    public int getOutEdge(int currency, int i) {
+        return outEdges[currency][i];
+    }
+
+    /**
+     * @return market of the best quote of the edge
+     */
+    public Market getMarket(int edge) {
+        return quoteMarkets[bestQuotes[edge]];
+    }
+
+    public int getFrom(int edge) {
+        return edgeFrom[edge];
+    }
+
+    public int getTo(int edge) {
+        return edgeTo[edge];
+    }
+
+    public double getRate(int edge) {
+        return rates[edge];
+    }
+
+    public double getPrice(int edge) {
+        return prices[edge];
+    }
+
+    /**
+     * https://medium.com/@anilpai/currency-arbitrage-using-bellman-ford-algorithm-8938dcea56ea
+     *
+     * @return negated log of the rate, so that the shortest path is the most profitable one
+     */
+    public double getLogWeight(int edge) {
+        return logWeights[edge];
+    }
+
+    /**
+     * @return log of the rate multiplier left after paying the taker fee
+     */
+    public double getFeeLog(int edge) {
+        return feeLogs[edge];
+    }
+
+    public long getUpdatedAt(int edge) {
+        return updatedAt[edge];
+    }
+
+    public long getEdgeVersion(int edge) {
+        return edgeVersions[edge];
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * @return stripe of the edge, shared by both directions of its currency pair
+     */
+    public int getEdgeStripe(int edge) {
+        return edgeStripes[edge];
+    }
+
+    public int getQuoteStripe(int quote) {
+        return edgeStripes[quoteEdges[quote]];
+    }
+
+    public int getQuoteCount() {
+        return quoteCount;
+    }
+
+    public int getEdgeQuoteCount(int edge) {
+        return edgeQuoteCount[edge];
+    }
+
+    public int getBestQuote(int edge) {
+        return bestQuotes[edge];
+    }
+
+    public int getQuoteEdge(int quote) {
+        return quoteEdges[quote];
+    }
+
+    public int getQuoteExchange(int quote) {
+        return quoteExchanges[quote];
+    }
+
+    public Market getQuoteMarket(int quote) {
+        return quoteMarkets[quote];
+    }
+
+    public double getQuoteRate(int quote) {
+        return quoteRates[quote];
+    }
+
+    public double getQuotePrice(int quote) {
+        return quotePrices[quote];
+    }
+
+    public long getQuoteUpdatedAt(int quote) {
+        return quoteUpdatedAt[quote];
+    }
+
+    private static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        /**
+         * Writes to the edges of the stripe, written only by the holder of the write lock
+         */
+        long version;
+        /**
+         * Write stamp of {@link #addQuote}, which locks all the stripes
+         */
+        long stamp;
+    }
+}
@@ -0,0 +1,100 @@
+package dev.natsoft.arbitrage;
+
+import java.util.BitSet;
+
+/**
+ * Consistent copy of the rates of a {@link RateMatrix}, taken with {@link RateMatrix#snapshot(RateSnapshot)}.
+ * <p>
+ * Detection scores cycles against a snapshot, so it never has to hold off the writers.
+ * Instances are reused between detections to avoid allocating the arrays every time.
+ */
+public class RateSnapshot {
+    private long version;
+    private int edgeCount;
+    private double[] logWeights;
+    private double[] feeLogs;
+    private long[] updatedAt;
+    private long[] edgeVersions;
+
+    public RateSnapshot() {
+        logWeights = new double[0];
+        feeLogs = new double[0];
+        updatedAt = new long[0];
+        edgeVersions = new long[0];
+    }
+
+    void copy(long version, int edgeCount, double[] logWeights, double[] feeLogs, long[] updatedAt, long[] edgeVersions) {
+        if (this.logWeights.length < edgeCount) {
+            int capacity = Math.max(edgeCount, this.logWeights.length * 2);
+            this.logWeights = new double[capacity];
+            this.feeLogs = new double[capacity];
+            this.updatedAt = new long[capacity];
+            this.edgeVersions = new long[capacity];
+        }
+
+        this.version = version;
+        this.edgeCount = edgeCount;
+        System.arraycopy(logWeights, 0, this.logWeights, 0, edgeCount);
+        System.arraycopy(feeLogs, 0, this.feeLogs, 0, edgeCount);
+        System.arraycopy(updatedAt, 0, this.updatedAt, 0, edgeCount);
+        System.arraycopy(edgeVersions, 0, this.edgeVersions, 0, edgeCount);
+    }
+
+    /**
+     * Marks the edges updated or added since the previous snapshot.
+     */
+    public void changedSince(RateSnapshot previous, BitSet changedEdges) {
+        int common = Math.min(edgeCount, previous.edgeCount);
+        for (int edge = 0; edge < common; edge++) {
+            if (edgeVersions[edge] != previous.edgeVersions[edge])
+                changedEdges.set(edge);
+        }
+        if (edgeCount > common)
+            changedEdges.set(common, edgeCount);
+    }
+
+    /**
+     * @return log of the cycle profitability after fees or negative infinity if any of the rates is outdated
+     */
+    public double profitLog(int[] cycle, long now, long freshnessMillis) {
+        double profitLog = 0;
+        for (int edge : cycle) {
+            if (now - updatedAt[edge] > freshnessMillis)
+                return Double.NEGATIVE_INFINITY;
+            profitLog += feeLogs[edge] - logWeights[edge];
+        }
+        return profitLog;
+    }
+
+    /**
+     * @return number of rate updates published to the matrix when this snapshot was taken
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public double getLogWeight(int edge) {
+        return logWeights[edge];
+    }
+
+    public double getFeeLog(int edge) {
+        return feeLogs[edge];
+    }
+
+    public long getUpdatedAt(int edge) {
+        return updatedAt[edge];
+    }
+
+    public long getEdgeVersion(int edge) {
+        return edgeVersions[edge];
+    }
+
+    @Override
+    public String toString() {
+        return "RateSnapshot{version=" + version + ", edges=" + edgeCount + "}";
+    }
+}
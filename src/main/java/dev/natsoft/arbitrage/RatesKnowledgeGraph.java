@@ -1,134 +1,395 @@
 package dev.natsoft.arbitrage;
 
-import ch.obermuhlner.math.big.BigDecimalMath;
+import dev.natsoft.arbitrage.Reports.JournalWriter;
+import dev.natsoft.arbitrage.detection.CycleBounds;
+import dev.natsoft.arbitrage.detection.CycleDetector;
+import dev.natsoft.arbitrage.detection.CycleScorer;
+import dev.natsoft.arbitrage.detection.DetectionStrategy;
+import dev.natsoft.arbitrage.exchanges.Exchange;
 import dev.natsoft.arbitrage.model.Market;
+import dev.natsoft.arbitrage.model.OpportunityBatch;
+import dev.natsoft.arbitrage.model.OrderBook;
 import dev.natsoft.arbitrage.model.TradeChain;
-import io.reactivex.rxjava3.core.Flowable;
+import dev.natsoft.arbitrage.ring.TickRing;
 import io.reactivex.rxjava3.core.Observable;
-import io.reactivex.rxjava3.schedulers.Schedulers;
 import io.reactivex.rxjava3.subjects.PublishSubject;
 import io.reactivex.rxjava3.subjects.Subject;
 import org.jgrapht.Graph;
 import org.jgrapht.GraphPath;
-import org.jgrapht.alg.cycle.SzwarcfiterLauerSimpleCycles;
 import org.jgrapht.graph.DefaultDirectedWeightedGraph;
 import org.jgrapht.graph.GraphWalk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.MathContext;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.Collectors;
-
-import static com.google.common.collect.Iterators.find;
 
+/**
+ * Knowledge about all the exchange rates and the arbitrage opportunities between them.
+ * <p>
+ * Rates are published to the {@link RateMatrix} by the {@link IngestionShards}, a single writer per stripe
+ * of currency pairs, detection works on a
+ * {@link RateSnapshot} of them and never blocks the writers. The topology lock only serializes
+ * adding markets with detection, since the detectors walk the adjacency.
+ * <p>
+ * Any number of exchanges can feed the graph, their markets between the same currencies become quotes
+ * of a single edge priced by the best of them, see {@link RateMatrix}.
+ */
 public class RatesKnowledgeGraph {
     private static final Logger LOGGER = LoggerFactory.getLogger(RatesKnowledgeGraph.class);
+    private static final long FRESHNESS_MILLIS = TimeUnit.SECONDS.toMillis(Market.FRESHNESS_SECONDS);
     private static Graph<String, Market> exchangeRates;
-    private final ReentrantLock graphLock;
-    private Subject<TradeChain> bestTradesStream;
+    private final ReentrantLock topologyLock;
+    private final RateMatrix rateMatrix;
+    private final IngestionShards ingestion;
+    private final CycleBounds cycleBounds;
+    private final CycleDetector cycleDetector;
+    private final CycleScorer cycleScorer;
+    private final FeedHealth feedHealth;
+    private final BitSet updatedEdges;
+    private final Map<String, TickerHandle> tickers;
+    private final DetectionTrigger detectionTrigger;
+    private final JournalWriter arbitrageJournal;
+    private RateSnapshot snapshot;
+    private RateSnapshot previousSnapshot;
+    private Subject<OpportunityBatch> opportunitiesStream;
 
     public RatesKnowledgeGraph() {
+        this(DetectionStrategy.fromSystemProperties());
+    }
+
+    public RatesKnowledgeGraph(DetectionStrategy detectionStrategy) {
+        this(detectionStrategy, CycleScorer.fromSystemProperties());
+    }
+
+    public RatesKnowledgeGraph(DetectionStrategy detectionStrategy, CycleScorer cycleScorer) {
         exchangeRates = new DefaultDirectedWeightedGraph<>(Market.class);
-        graphLock = new ReentrantLock();
-        bestTradesStream = PublishSubject.create();
+        topologyLock = new ReentrantLock();
+        ingestion = IngestionShards.fromSystemProperties();
+        rateMatrix = new RateMatrix(FRESHNESS_MILLIS, ingestion.getShardCount());
+        cycleBounds = CycleBounds.fromSystemProperties();
+        cycleDetector = detectionStrategy.create(rateMatrix, exchangeRates, FRESHNESS_MILLIS, cycleBounds);
+        this.cycleScorer = cycleScorer;
+        feedHealth = FeedHealth.fromSystemProperties(rateMatrix);
+        updatedEdges = new BitSet();
+        tickers = new ConcurrentHashMap<>();
+        detectionTrigger = DetectionTrigger.fromSystemProperties();
+        arbitrageJournal = JournalWriter.fromSystemProperties(new File("tmp/arbitrage.csv"), null);
+        snapshot = new RateSnapshot();
+        previousSnapshot = new RateSnapshot();
+        opportunitiesStream = PublishSubject.create();
+
+        LOGGER.info("Using {} cycle detection within {}, scoring parallelism: {}", detectionStrategy, cycleBounds, cycleScorer.getParallelism());
     }
 
+    /**
+     * Convenience update from a market carrying its rate and price.
+     * Looking the market up waits for running detections, feeds ticking continuously
+     * should go through {@link #bindTicker} instead.
+     */
     public void updateSecurity(Market rate) {
-        graphLock.lock();
+        int quote;
+        topologyLock.lock();
+        try {
+            quote = findOrAddQuote(rate.from, rate.to, rate.exchange);
+        } finally {
+            topologyLock.unlock();
+        }
 
-        // Fixme multigraph for many exchanges?
-        Set<Market> markets = exchangeRates.getAllEdges(rate.from, rate.to);
+        double rateValue = rate.getRate().doubleValue();
+        long now = System.currentTimeMillis();
+        long previousUpdate = rateMatrix.getQuoteUpdatedAt(quote);
 
-        Market market = null;
-        if (markets != null) {
-            market = find(
-                    markets.iterator(),
-                    (Market mark) -> {
-                        assert mark != null;
-                        return mark.exchange.equals(rate.exchange);
-                    },
-                    null
-            );
+        int stripe = rateMatrix.getQuoteStripe(quote);
+        long stamp = rateMatrix.beginWrite(stripe);
+        try {
+            rateMatrix.update(quote, rateValue, rate.getPrice().doubleValue(), -Math.log(rateValue), now);
+        } finally {
+            rateMatrix.endWrite(stripe, stamp);
         }
 
-        if (market == null) {
-            market = new Market(rate.from, rate.to, rate.exchange);
-
-            if (!exchangeRates.containsVertex(rate.from)) exchangeRates.addVertex(rate.from);
-            if (!exchangeRates.containsVertex(rate.to)) exchangeRates.addVertex(rate.to);
+        feedHealth.onQuoteUpdate(quote, previousUpdate, now);
+        feedHealth.onExchangeUpdate(rateMatrix.getQuoteExchange(quote), now);
+    }
 
-            exchangeRates.addEdge(rate.from, rate.to, market);
+    /**
+     * Resolves the edges of a ticker once, so that its ticks can be applied without lookups.
+     */
+    public TickerHandle bindTicker(String from, String to, Exchange exchange) {
+        topologyLock.lock();
+        try {
+            int bidQuote = findOrAddQuote(from, to, exchange);
+            int askQuote = findOrAddQuote(to, from, exchange);
+
+            // tickers of the same pair on different exchanges share the edges, so either handle will do
+            TickerHandle ticker = new TickerHandle(from, to, bidQuote, askQuote, rateMatrix, this);
+            tickers.put(ticker.symbol, ticker);
+            return ticker;
+        } finally {
+            topologyLock.unlock();
         }
+    }
 
-        market.setRate(rate.getRate());
-        market.setPrice(rate.getPrice());
+    void attachOrderBook(TickerHandle ticker, OrderBook book) {
+        rateMatrix.getQuoteMarket(ticker.bidQuote).setOrderBook(book, true);
+        rateMatrix.getQuoteMarket(ticker.askQuote).setOrderBook(book, false);
+    }
+
+    /**
+     * Writes the tick to the stripe of the ticker, called by the shard owning it.
+     */
+    void applyTicker(TickerHandle ticker, double bid, double ask, long receivedNanos) {
+        long now = System.currentTimeMillis();
+        long previousBidUpdate = rateMatrix.getQuoteUpdatedAt(ticker.bidQuote);
+        long previousAskUpdate = rateMatrix.getQuoteUpdatedAt(ticker.askQuote);
 
-        // https://medium.com/@anilpai/currency-arbitrage-using-bellman-ford-algorithm-8938dcea56ea
-        // prepare weights for finding shortest path
-        double weight = BigDecimalMath.log(rate.getRate(), new MathContext(100))
-                .negate()
-                .doubleValue();
+        long stamp = rateMatrix.beginWrite(ticker.stripe);
+        try {
+            // https://medium.com/@anilpai/currency-arbitrage-using-bellman-ford-algorithm-8938dcea56ea
+            // prepare weights for finding shortest path, -log(1 / ask) == log(ask)
+            rateMatrix.update(ticker.bidQuote, bid, bid, -Math.log(bid), now);
+            rateMatrix.update(ticker.askQuote, 1 / ask, ask, Math.log(ask), now);
+        } finally {
+            rateMatrix.endWrite(ticker.stripe, stamp);
+        }
 
-        exchangeRates.setEdgeWeight(rate.from, rate.to, weight);
-        graphLock.unlock();
+        feedHealth.onQuoteUpdate(ticker.bidQuote, previousBidUpdate, now);
+        feedHealth.onQuoteUpdate(ticker.askQuote, previousAskUpdate, now);
+        feedHealth.onExchangeUpdate(rateMatrix.getQuoteExchange(ticker.bidQuote), now);
+        ticker.receivedNanos = receivedNanos;
     }
 
-    public Optional<TradeChain> detectArbitrage(String tickerSymbol) {
-        graphLock.lock();
+    private int findOrAddQuote(String fromCurrency, String toCurrency, Exchange exchange) {
+        int from = rateMatrix.currencyId(fromCurrency);
+        int to = rateMatrix.currencyId(toCurrency);
+        int exchangeId = rateMatrix.exchangeId(exchange);
+        feedHealth.addExchange(exchangeId);
+
+        int quote = rateMatrix.findQuote(from, to, exchangeId);
+        if (quote >= 0)
+            return quote;
 
-        Optional<TradeChain> tradeChain = findArbitrageForSecurity().stream()
-//        exchangeRates
-//                .vertexSet()
-//                .stream()
-//                .map(this::findArbitrageForSecurity)
-//                .flatMap(List::stream)
-                .map(TradeChain::new)
-                .filter(tc -> tc.ilustratePath().contains("USD"))
-//                .filter(TradeChain::meetsThreshold)
-                .max(Comparator.comparing(TradeChain::getProfitability));
-//                .ifPresent(this::report);
+        Market market = new Market(fromCurrency, toCurrency, exchange);
+        int edges = rateMatrix.getEdgeCount();
+        quote = rateMatrix.addQuote(from, to, exchangeId, market);
 
+        if (rateMatrix.getEdgeCount() > edges) {
+            // the JGraphT graph only tracks the topology of the edges, quotes and rates live in the matrix
+            if (!exchangeRates.containsVertex(fromCurrency)) exchangeRates.addVertex(fromCurrency);
+            if (!exchangeRates.containsVertex(toCurrency)) exchangeRates.addVertex(toCurrency);
+            exchangeRates.addEdge(fromCurrency, toCurrency, market);
 
-        graphLock.unlock();
+            cycleDetector.onEdgeAdded(rateMatrix.getQuoteEdge(quote));
+        }
 
-        return tradeChain;
+        return quote;
     }
 
-    private List<GraphPath<String, Market>> findArbitrageForSecurity() {
-//        try {
-//            return new BellmanFordShortestPath<>(exchangeRates)
-//                    .getPath(s, s);
-//        } catch (NegativeCycleDetectedException e) {
-//            // This is what we are looking for.
-//            // https://medium.com/@anilpai/currency-arbitrage-using-bellman-ford-algorithm-8938dcea56ea
-//            return (GraphPath<String, Market>) e.getCycle();
-//        }
+    /**
+     * @return the most profitable chain of {@link #detectOpportunities(Set)}
+     */
+    public Optional<TradeChain> detectArbitrage(Set<String> changedSymbols) {
+        OpportunityBatch batch = detectOpportunities(changedSymbols);
+        return batch.isEmpty() ? Optional.empty() : Optional.of(batch.best());
+    }
 
-        // TODO compare with BellmanFord and check out other simple cycle algos
-        List<GraphPath<String, Market>> paths = new SzwarcfiterLauerSimpleCycles<>(exchangeRates)
-                .findSimpleCycles()
-                .stream()
-                .filter(c -> c.size() >= 3)
-                .filter(c -> c.size() <= 5)
-                .filter(c -> !c.contains("LEO"))
-                .map(this::createPathFromVList)
-                .collect(Collectors.toList());
+    /**
+     * Scores the candidate cycles of the configured {@link CycleDetector} against a fresh snapshot
+     * of the rates and ranks the most profitable ones, see {@link CycleScorer}.
+     * Only the ranked cycles are turned into chains.
+     *
+     * @param changedSymbols tickers updated since the previous detection,
+     *                       null to find the updated edges by comparing snapshots
+     */
+    public OpportunityBatch detectOpportunities(Set<String> changedSymbols) {
+        long started = System.nanoTime();
+        long oldestTick = 0;
+        topologyLock.lock();
+        try {
+            RateSnapshot previous = snapshot;
+            snapshot = rateMatrix.snapshot(previousSnapshot);
+            previousSnapshot = previous;
+
+            if (changedSymbols == null) {
+                snapshot.changedSince(previousSnapshot, updatedEdges);
+            } else {
+                for (String symbol : changedSymbols) {
+                    TickerHandle ticker = tickers.get(symbol);
+                    if (ticker != null) {
+                        updatedEdges.set(ticker.bidEdge);
+                        updatedEdges.set(ticker.askEdge);
+                        long received = ticker.receivedNanos;
+                        if (oldestTick == 0 || received - oldestTick < 0)
+                            oldestTick = received;
+                    }
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            cycleDetector.detect(snapshot, updatedEdges, cycle -> {
+                if (feedHealth.isHealthy(cycle, now))
+                    cycleScorer.add(cycle);
+            });
+            updatedEdges.clear();
+
+            long version = snapshot.getVersion();
+            int ranks = cycleScorer.rank(snapshot, now, FRESHNESS_MILLIS);
+            List<TradeChain> ranked = new ArrayList<>(ranks);
+            for (int rank = 0; rank < ranks; rank++) {
+                int[] cycle = cycleScorer.getRanked(rank);
+                // the markets are live, a chain whose rates moved since the snapshot isn't the one ranked,
+                // its updated edges get it detected again
+                if (unchangedSince(snapshot, cycle))
+                    ranked.add(new TradeChain(createPath(cycle), version, rateMatrix, cycle.clone()));
+            }
+
+            long finished = System.nanoTime();
+            for (TradeChain tradeChain : ranked) {
+                tradeChain.getTrace().detected(oldestTick, started, finished);
+            }
+            return new OpportunityBatch(ranked, version);
+        } finally {
+            topologyLock.unlock();
+        }
+    }
 
+    /**
+     * Adds back the quotes of the exchanges from the last checkpoint, before they start updating,
+     * and checkpoints the graph periodically from then on.
+     */
+    public void warmStart(GraphCheckpoint checkpoint, Collection<? extends Exchange> exchanges) {
+        try {
+            GraphCheckpoint.State state = checkpoint.read();
+            if (state != null)
+                restore(checkpoint, state, exchanges);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to restore the graph checkpoint, starting cold", e);
+        }
 
-        return paths;
+        if (checkpoint.getPeriodMillis() <= 0)
+            return;
+
+        ScheduledExecutorService checkpointing = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "graph-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointing.scheduleWithFixedDelay(() -> saveCheckpoint(checkpoint),
+                checkpoint.getPeriodMillis(), checkpoint.getPeriodMillis(), TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> saveCheckpoint(checkpoint), "graph-checkpoint-close"));
     }
 
-    private GraphPath<String, Market> createPathFromVList(List<String> cycle) {
-        cycle.add(cycle.get(0));
-        return new GraphWalk<>(exchangeRates, cycle, 10);
+    private void restore(GraphCheckpoint checkpoint, GraphCheckpoint.State state, Collection<? extends Exchange> exchanges) {
+        long started = System.nanoTime();
+        Map<String, Exchange> exchangesByName = new HashMap<>();
+        for (Exchange exchange : exchanges) {
+            exchangesByName.put(exchange.getName(), exchange);
+        }
+
+        int[] quotes = new int[state.quoteCount];
+        topologyLock.lock();
+        try {
+            for (int i = 0; i < state.quoteCount; i++) {
+                Exchange exchange = exchangesByName.get(state.exchanges[state.exchange[i]]);
+                quotes[i] = exchange == null ? -1
+                        : findOrAddQuote(state.currencies[state.from[i]], state.currencies[state.to[i]], exchange);
+            }
+        } finally {
+            topologyLock.unlock();
+        }
+
+        // quotes keep their update times and go stale by their age, too old ones come back without a rate
+        int restored = 0;
+        if (checkpoint.isRecent(state.savedAt, System.currentTimeMillis())) {
+            for (int i = 0; i < state.quoteCount; i++) {
+                if (quotes[i] < 0 || state.updatedAt[i] == 0)
+                    continue;
+
+                int stripe = rateMatrix.getQuoteStripe(quotes[i]);
+                long stamp = rateMatrix.beginWrite(stripe);
+                try {
+                    rateMatrix.update(quotes[i], state.rates[i], state.prices[i], state.logWeights[i], state.updatedAt[i]);
+                } finally {
+                    rateMatrix.endWrite(stripe, stamp);
+                }
+                restored++;
+            }
+        }
+        checkpoint.onRestored(restored);
+
+        LOGGER.info("Warm started {} edges with {} of {} quote rates from checkpoint saved at {} in {}ms",
+                rateMatrix.getEdgeCount(), restored, state.quoteCount, Instant.ofEpochMilli(state.savedAt),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private void saveCheckpoint(GraphCheckpoint checkpoint) {
+        try {
+            checkpoint.write(captureCheckpoint());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to checkpoint the graph", e);
+        }
+    }
+
+    private GraphCheckpoint.State captureCheckpoint() {
+        topologyLock.lock();
+        try {
+            int quoteCount = rateMatrix.getQuoteCount();
+            String[] currencies = new String[rateMatrix.getCurrencyCount()];
+            for (int currency = 0; currency < currencies.length; currency++) {
+                currencies[currency] = rateMatrix.currency(currency);
+            }
+
+            List<String> exchanges = new ArrayList<>();
+            int[] exchangeIndexes = new int[quoteCount];
+            for (int quote = 0; quote < quoteCount; quote++) {
+                String exchange = rateMatrix.getQuoteMarket(quote).exchange.getName();
+                int index = exchanges.indexOf(exchange);
+                if (index < 0) {
+                    index = exchanges.size();
+                    exchanges.add(exchange);
+                }
+                exchangeIndexes[quote] = index;
+            }
+
+            GraphCheckpoint.State state = new GraphCheckpoint.State(System.currentTimeMillis(),
+                    exchanges.toArray(new String[0]), currencies, quoteCount);
+            for (int quote = 0; quote < quoteCount; quote++) {
+                int edge = rateMatrix.getQuoteEdge(quote);
+                state.from[quote] = rateMatrix.getFrom(edge);
+                state.to[quote] = rateMatrix.getTo(edge);
+                state.exchange[quote] = exchangeIndexes[quote];
+            }
+            rateMatrix.copyQuotes(quoteCount, state.rates, state.prices, state.logWeights, state.updatedAt);
+            return state;
+        } finally {
+            topologyLock.unlock();
+        }
+    }
+
+    private boolean unchangedSince(RateSnapshot snapshot, int[] cycle) {
+        long versions = 0;
+        for (int edge : cycle) {
+            versions += snapshot.getEdgeVersion(edge);
+        }
+        return rateMatrix.sumEdgeVersions(cycle) == versions;
+    }
+
+    private GraphPath<String, Market> createPath(int[] cycle) {
+        // fresh list, the chain may get rotated by its consumers
+        List<Market> edges = new ArrayList<>(cycle.length);
+        for (int edge : cycle) {
+            edges.add(rateMatrix.getMarket(edge));
+        }
+        String start = edges.get(0).from;
+        return new GraphWalk<>(exchangeRates, start, start, edges, 10);
     }
 
 
@@ -143,45 +404,79 @@ public class RatesKnowledgeGraph {
                         .subtract(new BigDecimal(1))
         );
 
-        String message = String.format("Arbitrage detected: profit: %s, trades: %s",
+        String message = String.format("Arbitrage detected: profit: %s, trades: %s, snapshot: %d",
                 profitability,
-                tradeChain.ilustratePath()
+                tradeChain.ilustratePath(),
+                tradeChain.snapshotVersion
         );
 
         LOGGER.info(message);
 
-        try {
-            File file = new File("tmp/arbitrage.csv");
-            FileWriter fr = new FileWriter(file, true);
+        List<String> row = new LinkedList<>();
+        row.add(Instant.now().toString());
+        row.add(profitability);
+        row.add(tradeChain.ilustratePath().replace(",", "|"));
+        arbitrageJournal.offer(String.join(",", row) + "\n");
 
-            List<String> row = new LinkedList<>();
-            row.add(Instant.now().toString());
-            row.add(profitability);
-            row.add(tradeChain.ilustratePath().replace(",", "|"));
+        return Optional.of(tradeChain);
+    }
 
-            fr.write(String.join(",", row) + "\n");
-            fr.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Adds the ingestion shards to the handlers of the ring, and detection after them, then starts detection.
+     * Both gate the feed, so no tick is lost for the graph. The ring is started by the feed.
+     */
+    public void registerTickRing(TickRing ring) {
+        TickRing.Cursor[] shards = new TickRing.Cursor[ingestion.getShardCount()];
+        for (int shard = 0; shard < shards.length; shard++) {
+            shards[shard] = ring.addHandler("ingest-" + shard, ingestion.handler(this, shard), true);
         }
+        ring.addHandler("detection", (event, sequence) -> {
+            if (event.ticker != null)
+                detectionTrigger.onTick(event.ticker.symbol);
+        }, true, shards);
+        detectionTrigger.start(this::detectAndPublish);
+    }
 
-        return Optional.of(tradeChain);
+    /**
+     * Reports the best chain and publishes the batch, without the chains that lost their profitability.
+     */
+    private void detectAndPublish(Set<String> changedSymbols) {
+        OpportunityBatch batch = detectOpportunities(changedSymbols);
+        if (batch.isEmpty() || !report(batch.best()).isPresent())
+            return;
+
+        List<TradeChain> profitable = new ArrayList<>(batch.ranked.size());
+        for (TradeChain tradeChain : batch.ranked) {
+            if (tradeChain.getProfitability().signum() != 0)
+                profitable.add(tradeChain);
+        }
+        opportunitiesStream.onNext(new OpportunityBatch(profitable, batch.snapshotVersion));
+    }
+
+    public JournalWriter getArbitrageJournal() {
+        return arbitrageJournal;
+    }
+
+    public IngestionShards getIngestion() {
+        return ingestion;
+    }
+
+    public FeedHealth getFeedHealth() {
+        return feedHealth;
+    }
+
+    public DetectionTrigger getDetectionTrigger() {
+        return detectionTrigger;
     }
 
-    public void registerTickerStream(Flowable<String> ticks) {
-        ticks
-                .debounce(100, TimeUnit.MILLISECONDS)
-                .onBackpressureDrop()
-                .observeOn(Schedulers.io(), true, 1)
-                .mapOptional(this::detectArbitrage)
-                .mapOptional(this::report)
-                .subscribe(
-                        bestTradesStream::onNext,
-                        e -> LOGGER.error(e.getMessage(), e)
-                );
+    /**
+     * @return ranked chains of every detection whose best chain got reported
+     */
+    public Observable<OpportunityBatch> getOpportunitiesStream() {
+        return opportunitiesStream;
     }
 
     public Observable<TradeChain> getBestTradesStream() {
-        return bestTradesStream;
+        return opportunitiesStream.map(OpportunityBatch::best);
     }
 }
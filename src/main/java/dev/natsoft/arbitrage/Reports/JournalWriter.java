@@ -0,0 +1,298 @@
+package dev.natsoft.arbitrage.Reports;
+
+import dev.natsoft.arbitrage.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Appends text records to a file from a thread of its own, so that disk I/O never runs on the
+ * detection or execution threads.
+ * <p>
+ * Records go through a bounded queue, the writer drains whatever is queued and appends it with one
+ * sequential write to a channel kept open for the whole run (group commit), forcing it to disk at most
+ * every sync interval. A full queue rejects records instead of blocking the caller.
+ * The file and the writer thread are created with the first record, an empty file starts with the header.
+ * Queued records are flushed on close and on JVM shutdown.
+ * Configured with {@code -Darbitrage.journal.capacity}, {@code -Darbitrage.journal.batchBytes}
+ * and {@code -Darbitrage.journal.syncMillis}.
+ */
+public class JournalWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JournalWriter.class);
+    private static final Entry CLOSE = new Entry(null, 0, null);
+
+    private final File file;
+    private final String header;
+    private final BlockingQueue<Entry> queue;
+    private final int batchBytes;
+    private final long syncNanos;
+    private final LatencyHistogram writeLatency;
+    private final LatencyHistogram syncLatency;
+    private final AtomicLong written;
+    private final AtomicLong rejected;
+    private final AtomicLong batches;
+    private Thread writer;
+    private volatile boolean closed;
+
+    public JournalWriter(File file, String header, int capacity, int batchBytes, long syncMillis) {
+        this.file = file;
+        this.header = header;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchBytes = batchBytes;
+        this.syncNanos = TimeUnit.MILLISECONDS.toNanos(syncMillis);
+        this.writeLatency = new LatencyHistogram();
+        this.syncLatency = new LatencyHistogram();
+        this.written = new AtomicLong();
+        this.rejected = new AtomicLong();
+        this.batches = new AtomicLong();
+    }
+
+    /**
+     * @param header first line of a new file, null for none
+     */
+    public static JournalWriter fromSystemProperties(File file, String header) {
+        return new JournalWriter(
+                file,
+                header,
+                Integer.getInteger("arbitrage.journal.capacity", 4096),
+                Integer.getInteger("arbitrage.journal.batchBytes", 256 << 10),
+                Long.getLong("arbitrage.journal.syncMillis", 1000)
+        );
+    }
+
+    /**
+     * Queues the record without waiting for it to be written.
+     *
+     * @return false if the queue is full or the writer closed
+     */
+    public boolean offer(String record) {
+        return enqueue(new Entry(record, System.nanoTime(), null));
+    }
+
+    /**
+     * Queues the record, the future completes with the length of the file once it's written,
+     * which is before it's forced to disk.
+     */
+    public CompletableFuture<Long> append(String record) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        if (!enqueue(new Entry(record, System.nanoTime(), future)))
+            future.completeExceptionally(new IOException("Journal " + file + " rejected the record"));
+        return future;
+    }
+
+    private boolean enqueue(Entry entry) {
+        if (closed || !queue.offer(entry)) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        ensureStarted();
+        return true;
+    }
+
+    private synchronized void ensureStarted() {
+        if (writer != null)
+            return;
+
+        writer = new Thread(this::run, "journal-" + file.getName());
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "journal-" + file.getName() + "-close"));
+    }
+
+    /**
+     * Stops taking records and waits until the queued ones are written.
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            thread = writer;
+        }
+        if (thread == null)
+            return;
+
+        try {
+            if (queue.offer(CLOSE, 10, TimeUnit.SECONDS))
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(batchBytes);
+        try (FileChannel channel = FileChannel.open(file.toPath(), CREATE, WRITE, APPEND)) {
+            if (header != null && channel.size() == 0)
+                channel.write(StandardCharsets.UTF_8.encode(header));
+
+            long lastSync = System.nanoTime();
+            boolean dirty = false;
+            boolean closing = false;
+            while (!closing) {
+                Entry first = queue.poll(dirty ? syncNanos : Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    closing = write(channel, batch, buffer);
+                    batch.clear();
+                    dirty = true;
+                }
+
+                if (dirty && (closing || System.nanoTime() - lastSync >= syncNanos)) {
+                    long started = System.nanoTime();
+                    channel.force(false);
+                    lastSync = System.nanoTime();
+                    syncLatency.record(lastSync - started);
+                    dirty = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOGGER.error("Can't write journal {}: {}", file, e.getMessage(), e);
+        } finally {
+            closed = true;
+            failPending(batch);
+        }
+    }
+
+    /**
+     * @return true if the batch asked to close the journal
+     */
+    private boolean write(FileChannel channel, List<Entry> batch, ByteBuffer buffer) throws IOException {
+        boolean closing = false;
+        int flushed = 0;
+        long position = channel.size();
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = batch.get(i);
+            if (entry == CLOSE) {
+                closing = true;
+                continue;
+            }
+
+            byte[] bytes = entry.record.getBytes(StandardCharsets.UTF_8);
+            entry.length = bytes.length;
+            if (bytes.length > buffer.remaining()) {
+                position = flush(channel, batch, flushed, i, buffer, position);
+                flushed = i;
+            }
+            if (bytes.length > buffer.capacity()) {
+                // larger than a whole batch, written on its own
+                ByteBuffer large = ByteBuffer.wrap(bytes);
+                while (large.hasRemaining()) {
+                    position += channel.write(large);
+                }
+                complete(batch.get(i), position);
+                flushed = i + 1;
+            } else {
+                buffer.put(bytes);
+            }
+        }
+        flush(channel, batch, flushed, batch.size(), buffer, position);
+        return closing;
+    }
+
+    /**
+     * Writes the buffered records {@code from..to} of the batch and completes them.
+     *
+     * @return length of the file after the write
+     */
+    private long flush(FileChannel channel, List<Entry> batch, int from, int to, ByteBuffer buffer, long position) throws IOException {
+        if (buffer.position() > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+            batches.incrementAndGet();
+        }
+
+        for (int i = from; i < to; i++) {
+            Entry entry = batch.get(i);
+            if (entry != CLOSE) {
+                position += entry.length;
+                complete(entry, position);
+            }
+        }
+        return position;
+    }
+
+    private void complete(Entry entry, long position) {
+        written.incrementAndGet();
+        writeLatency.record(System.nanoTime() - entry.enqueuedNanos);
+        if (entry.written != null)
+            entry.written.complete(position);
+    }
+
+    private void failPending(List<Entry> batch) {
+        queue.drainTo(batch);
+        for (Entry entry : batch) {
+            if (entry != CLOSE && entry.written != null && !entry.written.isDone())
+                entry.written.completeExceptionally(new IOException("Journal " + file + " is closed"));
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return time from queueing a record to writing it, in nanoseconds
+     */
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    public LatencyHistogram getSyncLatency() {
+        return syncLatency;
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return "JournalWriter{file=" + file
+                + ", queued=" + getQueueDepth()
+                + ", written=" + getWritten()
+                + ", rejected=" + getRejected()
+                + ", batches=" + batches.get()
+                + ", write p50/p99=" + writeLatency.getPercentile(50) / 1000 + "/" + writeLatency.getPercentile(99) / 1000 + "us"
+                + ", sync p99=" + syncLatency.getPercentile(99) / 1000 + "us}";
+    }
+
+    private static class Entry {
+        final String record;
+        final long enqueuedNanos;
+        final CompletableFuture<Long> written;
+        int length;
+
+        Entry(String record, long enqueuedNanos, CompletableFuture<Long> written) {
+            this.record = record;
+            this.enqueuedNanos = enqueuedNanos;
+            this.written = written;
+        }
+    }
+}
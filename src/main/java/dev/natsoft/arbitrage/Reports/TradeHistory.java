@@ -0,0 +1,366 @@
+package dev.natsoft.arbitrage.Reports;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.google.common.io.ByteStreams;
+import dev.natsoft.arbitrage.model.Market;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * History of the executed trades, aggregated per canonical path.
+ * <p>
+ * Every path keeps a ring of the expected and actual profitability of its latest reports with running sums,
+ * so looking up the averages of a path is a hash lookup no matter how long the history gets.
+ * The CSV report file stays the source of truth, the aggregates are persisted next to it in a small
+ * binary index which also records the byte offset of the CSV it covers. On the first lookup the index is loaded
+ * and only the reports appended after it are parsed, the whole CSV only if there is no usable index.
+ * The journal may be appending a row meanwhile, parsing stops at the last complete one.
+ * Configured with {@code -Darbitrage.history.window} (reports averaged per path).
+ * Saved reports are added and the index persisted on a thread of the history, so the journal thread
+ * only writes, lookups come from the decision thread.
+ */
+public class TradeHistory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TradeHistory.class);
+    public static final String WINDOW_PROPERTY = "arbitrage.history.window";
+    private static final int MAGIC = 0x54524849;
+    private static final int VERSION = 1;
+    private static final Pattern INSTRUMENT = Pattern.compile("\\[([^\\[\\],]+),([^\\[\\],]+)]");
+
+    private final File reportFile;
+    private final File indexFile;
+    private final int window;
+    private final Map<String, PathStats> paths;
+    private final ExecutorService updates;
+    private long coveredLength;
+    private boolean loaded;
+
+    public TradeHistory(File reportFile, int window) {
+        this.reportFile = reportFile;
+        this.indexFile = new File(reportFile.getPath() + ".idx");
+        this.window = window;
+        this.paths = new HashMap<>();
+        this.updates = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "trade-history");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static TradeHistory fromSystemProperties() {
+        return new TradeHistory(TradeReport.getReportFile(), Integer.getInteger(WINDOW_PROPERTY, 5));
+    }
+
+    /**
+     * @return canonical path of the cycle: its currencies joined by {@code >}, starting from USD
+     * if it passes through it and from the alphabetically first currency otherwise
+     */
+    public static String pathKey(List<Market> markets) {
+        List<String> currencies = new ArrayList<>(markets.size());
+        for (Market market : markets) {
+            currencies.add(market.from);
+        }
+        return canonical(currencies);
+    }
+
+    /**
+     * @return canonical path of a {@link TradeReport#tradePath}, see {@link #pathKey(List)}
+     */
+    public static String pathKey(String tradePath) {
+        List<String> currencies = new ArrayList<>();
+        Matcher matcher = INSTRUMENT.matcher(tradePath);
+        while (matcher.find()) {
+            currencies.add(matcher.group(1));
+        }
+        return canonical(currencies);
+    }
+
+    private static String canonical(List<String> currencies) {
+        int start = currencies.indexOf("USD");
+        if (start < 0) {
+            start = 0;
+            for (int i = 1; i < currencies.size(); i++) {
+                if (currencies.get(i).compareTo(currencies.get(start)) < 0)
+                    start = i;
+            }
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < currencies.size(); i++) {
+            if (i > 0)
+                key.append('>');
+            key.append(currencies.get((start + i) % currencies.size()));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return aggregates of the path or null if it was never traded
+     */
+    public synchronized PathStats get(String pathKey) {
+        ensureLoaded();
+        return paths.get(pathKey);
+    }
+
+    /**
+     * Adds the report once it's written to the report file and persists the index.
+     */
+    public void add(TradeReport report) {
+        report.getSaved().whenCompleteAsync((length, e) -> {
+            if (e != null)
+                LOGGER.error("Report not added to the history: {}", e.getMessage());
+            else
+                onSaved(report, length);
+        }, updates);
+    }
+
+    /**
+     * @param length byte offset of the report file after the report
+     */
+    private synchronized void onSaved(TradeReport report, long length) {
+        ensureLoaded();
+        // loading may have parsed it already
+        if (length <= coveredLength)
+            return;
+
+        aggregate(report);
+        coveredLength = length;
+        writeIndex();
+    }
+
+    public synchronized int getPathCount() {
+        ensureLoaded();
+        return paths.size();
+    }
+
+    private void aggregate(TradeReport report) {
+        paths.computeIfAbsent(pathKey(report.tradePath), key -> new PathStats(window))
+                .add(parse(report.expectedProfitability), parse(report.actualProfitability));
+    }
+
+    private static double parse(String formatted) {
+        // written with Constants.DF, which groups thousands
+        return Double.parseDouble(formatted.replace(",", ""));
+    }
+
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+        loaded = true;
+
+        long started = System.nanoTime();
+        long length = reportFile.length();
+        if (!readIndex() || coveredLength > length) {
+            paths.clear();
+            coveredLength = 0;
+        }
+
+        if (coveredLength < length) {
+            long offset = coveredLength;
+            int reports = readReports(offset, length);
+            LOGGER.info("Parsed {} reports of {} not covered by the index", reports, reportFile);
+            if (coveredLength > offset)
+                writeIndex();
+        }
+        LOGGER.info("Loaded trade history of {} paths in {}ms", paths.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Parses the complete rows between the offset and the length, moving the covered offset past them.
+     */
+    private int readReports(long offset, long length) {
+        CsvMapper mapper = new CsvMapper();
+        // the header is only at the beginning of the file
+        CsvSchema schema = offset == 0
+                ? mapper.schemaFor(TradeReport.class).withSkipFirstDataRow(true)
+                : mapper.schemaFor(TradeReport.class);
+        ObjectReader reader = mapper.readerFor(TradeReport.class).with(schema);
+
+        int count = 0;
+        try {
+            long end = lastRowEnd(offset, length);
+            if (end == offset)
+                return 0;
+
+            try (InputStream in = ByteStreams.limit(new BufferedInputStream(new FileInputStream(reportFile)), end)) {
+                ByteStreams.skipFully(in, offset);
+                MappingIterator<TradeReport> it = reader.readValues(in);
+                while (it.hasNextValue()) {
+                    aggregate(it.nextValue());
+                    count++;
+                }
+            }
+            coveredLength = end;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Can't read TradeReport history CSV: {}", e.getMessage(), e);
+        }
+        return count;
+    }
+
+    /**
+     * @return offset after the last newline between the offset and the length, the offset if there is none
+     */
+    private long lastRowEnd(long offset, long length) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(reportFile, "r")) {
+            byte[] buffer = new byte[8192];
+            long end = length;
+            while (end > offset) {
+                int size = (int) Math.min(buffer.length, end - offset);
+                file.seek(end - size);
+                file.readFully(buffer, 0, size);
+                for (int i = size - 1; i >= 0; i--) {
+                    if (buffer[i] == '\n')
+                        return end - size + i + 1;
+                }
+                end -= size;
+            }
+            return offset;
+        }
+    }
+
+    private boolean readIndex() {
+        if (!indexFile.exists())
+            return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != window)
+                return false;
+
+            coveredLength = in.readLong();
+            int pathCount = in.readInt();
+            for (int i = 0; i < pathCount; i++) {
+                String key = in.readUTF();
+                PathStats stats = new PathStats(window);
+                stats.total = in.readLong();
+                int size = in.readInt();
+                // oldest first, so that adding them back restores the ring
+                for (int j = 0; j < size; j++) {
+                    stats.push(in.readDouble(), in.readDouble());
+                }
+                paths.put(key, stats);
+            }
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn("Ignoring unreadable trade history index {}: {}", indexFile, e.getMessage());
+            return false;
+        }
+    }
+
+    private void writeIndex() {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(window);
+            out.writeLong(coveredLength);
+            out.writeInt(paths.size());
+            for (Map.Entry<String, PathStats> entry : paths.entrySet()) {
+                PathStats stats = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(stats.total);
+                out.writeInt(stats.size);
+                for (int i = stats.size - 1; i >= 0; i--) {
+                    int slot = stats.slot(i);
+                    out.writeDouble(stats.expected[slot]);
+                    out.writeDouble(stats.actual[slot]);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Can't write trade history index {}: {}", indexFile, e.getMessage(), e);
+            return;
+        }
+
+        try {
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.error("Can't replace trade history index {}: {}", indexFile, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Rolling aggregates of the latest reports of a path, safe to read while reports are added.
+     */
+    public static class PathStats {
+        private final double[] expected;
+        private final double[] actual;
+        private double expectedSum;
+        private double actualSum;
+        private int next;
+        private int size;
+        private long total;
+
+        PathStats(int window) {
+            expected = new double[window];
+            actual = new double[window];
+        }
+
+        synchronized void add(double expectedProfitability, double actualProfitability) {
+            push(expectedProfitability, actualProfitability);
+            total++;
+        }
+
+        private void push(double expectedProfitability, double actualProfitability) {
+            if (size == expected.length) {
+                expectedSum -= expected[next];
+                actualSum -= actual[next];
+            } else {
+                size++;
+            }
+            expected[next] = expectedProfitability;
+            actual[next] = actualProfitability;
+            expectedSum += expectedProfitability;
+            actualSum += actualProfitability;
+            next = (next + 1) % expected.length;
+        }
+
+        /**
+         * @param age 0 for the latest report
+         */
+        private int slot(int age) {
+            return (next - 1 - age + 2 * expected.length) % expected.length;
+        }
+
+        public synchronized double getAverageExpected() {
+            return expectedSum / size;
+        }
+
+        public synchronized double getAverageActual() {
+            return actualSum / size;
+        }
+
+        /**
+         * @return reports aggregated in the window
+         */
+        public synchronized int getSize() {
+            return size;
+        }
+
+        /**
+         * @return all the reports of the path ever added
+         */
+        public synchronized long getTotal() {
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return "PathStats{total=" + total
+                    + ", expected=" + getAverageExpected()
+                    + ", actual=" + getAverageActual() + "}";
+        }
+    }
+}
@@ -3,23 +3,17 @@ package dev.natsoft.arbitrage.Reports;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
-import com.fasterxml.jackson.databind.MappingIterator;
-import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
-import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import dev.natsoft.arbitrage.Constants;
 import dev.natsoft.arbitrage.SimpleMarketTradeExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.math.RoundingMode;
-import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @JsonPropertyOrder({
@@ -35,7 +29,11 @@ import java.util.stream.Collectors;
 })
 public class TradeReport {
     private static final Logger LOGGER = LoggerFactory.getLogger(TradeReport.class);
-    private static final File reportFile = new File("tmp/trades_report.csv");
+    public static final String FILE_PROPERTY = "arbitrage.reports.file";
+    private static final File reportFile = new File(System.getProperty(FILE_PROPERTY, "tmp/trades_report.csv"));
+    private static final CsvMapper mapper = new CsvMapper();
+    private static final ObjectWriter rowWriter = mapper.writer(mapper.schemaFor(TradeReport.class));
+    private static final JournalWriter journal = JournalWriter.fromSystemProperties(reportFile, header());
 
     @JsonIgnore
     public SimpleMarketTradeExecutor te;
@@ -59,6 +57,9 @@ public class TradeReport {
     @JsonProperty("Trades")
     public String trades;
 
+    @JsonIgnore
+    private CompletableFuture<Long> saved;
+
     // Required for Jackson serialization
     public TradeReport() {
     }
@@ -71,7 +72,7 @@ public class TradeReport {
         executorClass = te.getClass().toString();
         tradePath = te.tradeChain.ilustratePath();
         expectedProfitability = Constants.DF.format(te.tradeChain.getProfitability());
-        actualProfitability = Constants.DF.format(te.getFinalUSD().divide(te.getInitialUSD(), 100, RoundingMode.HALF_DOWN));
+        actualProfitability = Constants.DF.format(te.getActualProfitability());
         USDBefore = Constants.DF.format(te.getInitialUSD());
         USDAfter = Constants.DF.format(te.getFinalUSD());
         trades = te.getExecutedTrades()
@@ -80,36 +81,43 @@ public class TradeReport {
                 .collect(Collectors.joining(","));
     }
 
-    public static List<TradeReport> readReportHistory() {
-        try {
-            CsvMapper mapper = new CsvMapper();
-            CsvSchema schema = mapper.schemaFor(TradeReport.class).withSkipFirstDataRow(true);
-            ObjectReader reader = mapper.readerFor(TradeReport.class).with(schema);
-            MappingIterator<TradeReport> it = reader.readValues(reportFile);
+    public static File getReportFile() {
+        return reportFile;
+    }
 
-            return it.readAll();
+    public static JournalWriter getJournal() {
+        return journal;
+    }
+
+    private static String header() {
+        try {
+            // the header line of an empty report, as the mapper quotes it
+            String withHeader = mapper.writer(mapper.schemaFor(TradeReport.class).withUseHeader(true))
+                    .writeValueAsString(new TradeReport());
+            return withHeader.substring(0, withHeader.indexOf('\n') + 1);
         } catch (IOException e) {
-            LOGGER.error("Can't read TradeReport history CSV: {}", e.getMessage(), e);
-            return new ArrayList<>();
+            throw new UncheckedIOException(e);
         }
     }
 
-
+    /**
+     * Queues the report to the report file, see {@link #getSaved()}.
+     */
     public TradeReport saveReport() throws IOException {
-        boolean exists = reportFile.exists();
-
-        CsvMapper mapper = new CsvMapper();
-        CsvSchema schema = mapper.schemaFor(TradeReport.class).withUseHeader(!exists);
-        ObjectWriter myObjectWriter = mapper.writer(schema);
-
-        FileOutputStream tempFileOutputStream = new FileOutputStream(reportFile, true);
-        BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(tempFileOutputStream, 1024);
-        OutputStreamWriter writerOutputStream = new OutputStreamWriter(bufferedOutputStream, StandardCharsets.UTF_8);
-        myObjectWriter.writeValue(writerOutputStream, this);
-
+        saved = journal.append(rowWriter.writeValueAsString(this));
+        if (saved.isCompletedExceptionally())
+            LOGGER.error("Report dropped, the journal is full or closed: {}", journal);
         return this;
     }
 
+    /**
+     * @return completes with the length of the report file once the report is written to it
+     */
+    @JsonIgnore
+    public CompletableFuture<Long> getSaved() {
+        return saved;
+    }
+
     public TradeReport logReport() {
         LOGGER.info("=== TRADE REPORT ===");
         LOGGER.info("= Executor Class: {}", executorClass);
@@ -7,18 +7,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
 public class SimpleMarketTradeExecutor {
     private static final Logger LOGGER = LoggerFactory.getLogger(SimpleMarketTradeExecutor.class);
-    public final BigDecimal firstUSDAmount = new BigDecimal(30);
+    public static final BigDecimal FIRST_USD_AMOUNT = new BigDecimal(30);
+    public final BigDecimal firstUSDAmount = FIRST_USD_AMOUNT;
     public final TradeChain tradeChain;
     private final List<BitfinexSubmittedOrder> executedTrades;
     public boolean executed;
-    private BigDecimal initialUSD;
-    private BigDecimal finalUSD;
+    protected BigDecimal initialUSD;
+    protected BigDecimal finalUSD;
 
     public SimpleMarketTradeExecutor(TradeChain tradeChain) {
         this.tradeChain = tradeChain;
@@ -44,15 +46,12 @@ public class SimpleMarketTradeExecutor {
         BigDecimal amount = firstUSDAmount; // USD
 
         try {
-            for (Market market : markets) {
+            for (int leg = 0; leg < markets.size(); leg++) {
+                Market market = markets.get(leg);
+                tradeChain.getTrace().legSubmitted(leg, markets.size());
                 BitfinexSubmittedOrder order = market.exchange.trade(market, amount);
-                executedTrades.add(order);
-
-                BigDecimal atCreation = order.getAmountAtCreation();
-                if (atCreation.compareTo(new BigDecimal(0)) < 0) {
-                    atCreation = atCreation.negate().multiply(order.getPriceAverage());
-                }
-                amount = new BigDecimal(1).subtract(market.exchange.getTakerFee()).multiply(atCreation);
+                tradeChain.getTrace().legFilled(leg);
+                amount = recordTrade(market, order);
             }
 
             LOGGER.info("Finished trading {}", tradeChain.ilustratePath());
@@ -60,7 +59,6 @@ public class SimpleMarketTradeExecutor {
             // TODO get rid of blocking operations
             finalUSD = markets.get(0).exchange.getUSDUpdatesStream().blockingFirst();
         } catch (Exception e) {
-            if (e.getMessage().contains("client too busy")) return Optional.empty();
             LOGGER.error("Error while trading: {}", e.getMessage(), e);
             return Optional.empty();
         }
@@ -69,6 +67,30 @@ public class SimpleMarketTradeExecutor {
         return Optional.of(this);
     }
 
+    /**
+     * @return amount of {@code market.to} received, to be traded on the next leg,
+     * only the filled part of a partially filled order counts
+     */
+    protected BigDecimal recordTrade(Market market, BitfinexSubmittedOrder order) {
+        executedTrades.add(order);
+
+        BigDecimal filled = order.getAmountAtCreation();
+        if (order.getAmount() != null) {
+            filled = filled.subtract(order.getAmount());
+        }
+        if (filled.compareTo(new BigDecimal(0)) < 0) {
+            filled = filled.negate().multiply(order.getPriceAverage());
+        }
+        return new BigDecimal(1).subtract(market.exchange.getTakerFee()).multiply(filled);
+    }
+
+    /**
+     * @return USD balance after trading per USD balance before
+     */
+    public BigDecimal getActualProfitability() {
+        return finalUSD.divide(initialUSD, 100, RoundingMode.HALF_DOWN);
+    }
+
     public List<BitfinexSubmittedOrder> getExecutedTrades() {
         return executedTrades;
     }
@@ -0,0 +1,68 @@
+package dev.natsoft.arbitrage;
+
+import dev.natsoft.arbitrage.model.OrderBook;
+
+/**
+ * Ticker resolved to its pair of quotes, and their edges, in the {@link RateMatrix}.
+ * <p>
+ * Obtained once per ticker from {@link RatesKnowledgeGraph#bindTicker}, after that ticks
+ * are applied in place without any lookups or allocations. Feeds publishing to a
+ * {@link dev.natsoft.arbitrage.ring.TickRing} have them applied by the shard owning the stripe
+ * of the pair, see {@link IngestionShards}.
+ */
+public class TickerHandle {
+    public final String from;
+    public final String to;
+    /**
+     * Name of the ticker in the changes triggering detection
+     */
+    public final String symbol;
+    final int bidQuote;
+    final int askQuote;
+    final int bidEdge;
+    final int askEdge;
+    /**
+     * Stripe of the pair in the {@link RateMatrix}, the same for both quotes
+     */
+    final int stripe;
+    private final RatesKnowledgeGraph graph;
+    /**
+     * Monotonic receipt time of the last tick, see {@link System#nanoTime()}
+     */
+    volatile long receivedNanos;
+
+    TickerHandle(String from, String to, int bidQuote, int askQuote, RateMatrix matrix, RatesKnowledgeGraph graph) {
+        this.from = from;
+        this.to = to;
+        this.symbol = from + ":" + to;
+        this.bidQuote = bidQuote;
+        this.askQuote = askQuote;
+        this.bidEdge = matrix.getQuoteEdge(bidQuote);
+        this.askEdge = matrix.getQuoteEdge(askQuote);
+        this.stripe = matrix.getQuoteStripe(bidQuote);
+        this.graph = graph;
+    }
+
+    /**
+     * Selling {@code from} at the bid, buying it back at the ask.
+     */
+    public void update(double bid, double ask) {
+        update(bid, ask, System.nanoTime());
+    }
+
+    /**
+     * Applies the tick on the calling thread, which must be the only one writing the stripe of the pair.
+     *
+     * @param receivedNanos when the tick was received, for the latency of the opportunities it triggers
+     */
+    public void update(double bid, double ask, long receivedNanos) {
+        graph.applyTicker(this, bid, ask, receivedNanos);
+    }
+
+    /**
+     * Prices both markets of the ticker from the given book when executing at size.
+     */
+    public void attachOrderBook(OrderBook book) {
+        graph.attachOrderBook(this, book);
+    }
+}
@@ -0,0 +1,90 @@
+package dev.natsoft.arbitrage.detection;
+
+import dev.natsoft.arbitrage.RateMatrix;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Hop distances between every currency and the nearest of a set of anchors, used to prune cycle searches:
+ * a partial path that can't reach an anchor and get back within the remaining hops is abandoned.
+ * Distances beyond the maximal hop count are capped at {@code maxHops + 1}, excluded currencies are unreachable.
+ * Recomputed with at most maxHops relaxation passes over the edges whenever the topology changed.
+ */
+class AnchorDistances {
+    private final RateMatrix matrix;
+    private final CycleBounds bounds;
+    private final Set<String> anchors;
+    private final int unreachable;
+    private int[] toAnchor;
+    private int[] fromAnchor;
+    private int edgeCount = -1;
+
+    AnchorDistances(RateMatrix matrix, CycleBounds bounds, Set<String> anchors) {
+        this.matrix = matrix;
+        this.bounds = bounds;
+        this.anchors = anchors;
+        this.unreachable = bounds.maxHops + 1;
+        this.toAnchor = new int[64];
+        this.fromAnchor = new int[64];
+    }
+
+    /**
+     * Recomputes the distances if edges were added since the last call.
+     */
+    void update() {
+        if (matrix.getEdgeCount() == edgeCount)
+            return;
+        edgeCount = matrix.getEdgeCount();
+
+        int currencies = matrix.getCurrencyCount();
+        if (currencies > toAnchor.length) {
+            toAnchor = new int[Math.max(toAnchor.length * 2, currencies)];
+            fromAnchor = new int[toAnchor.length];
+        }
+        Arrays.fill(toAnchor, 0, currencies, unreachable);
+        Arrays.fill(fromAnchor, 0, currencies, unreachable);
+        for (String anchor : anchors) {
+            int id = matrix.findCurrency(anchor);
+            if (id >= 0) {
+                toAnchor[id] = 0;
+                fromAnchor[id] = 0;
+            }
+        }
+
+        for (int pass = 0; pass < bounds.maxHops; pass++) {
+            boolean changed = false;
+            for (int edge = 0; edge < edgeCount; edge++) {
+                int from = matrix.getFrom(edge);
+                int to = matrix.getTo(edge);
+                if (bounds.isExcluded(matrix, from) || bounds.isExcluded(matrix, to))
+                    continue;
+
+                if (fromAnchor[from] + 1 < fromAnchor[to]) {
+                    fromAnchor[to] = fromAnchor[from] + 1;
+                    changed = true;
+                }
+                if (toAnchor[to] + 1 < toAnchor[from]) {
+                    toAnchor[from] = toAnchor[to] + 1;
+                    changed = true;
+                }
+            }
+            if (!changed)
+                break;
+        }
+    }
+
+    /**
+     * @return hops from the currency to the nearest anchor
+     */
+    int toAnchor(int currency) {
+        return toAnchor[currency];
+    }
+
+    /**
+     * @return hops from the nearest anchor to the currency
+     */
+    int fromAnchor(int currency) {
+        return fromAnchor[currency];
+    }
+}
@@ -0,0 +1,141 @@
+package dev.natsoft.arbitrage.detection;
+
+import dev.natsoft.arbitrage.RateMatrix;
+import dev.natsoft.arbitrage.RateSnapshot;
+import dev.natsoft.arbitrage.model.CycleId;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Hop limited Bellman-Ford from each of the anchor currencies.
+ * <p>
+ * Layer k holds the lightest walk of exactly k edges from the anchor to every currency.
+ * Like SPFA only currencies reached in the previous layer are relaxed, so the cost is
+ * bounded by maxHops passes over the edges reachable from the anchor.
+ * For every hop count the lightest closed walk back to the anchor is reported, if it's a simple cycle.
+ * A cycle through several anchors is found from each of them, it's reported once per detection.
+ * With weights being negated logs of the rates after fees, negative walks are arbitrage.
+ */
+public class BellmanFordCycleDetector implements CycleDetector {
+    private final RateMatrix matrix;
+    private final CycleBounds bounds;
+    private final long freshnessMillis;
+    private final int[][] frontier;
+    private final int[] frontierSize;
+    private final Set<CycleId> reported;
+    private double[][] dist;
+    private int[][] pred;
+    private int capacity;
+
+    public BellmanFordCycleDetector(RateMatrix matrix, CycleBounds bounds, long freshnessMillis) {
+        this.matrix = matrix;
+        this.bounds = bounds;
+        this.freshnessMillis = freshnessMillis;
+        this.frontier = new int[bounds.maxHops][];
+        this.frontierSize = new int[bounds.maxHops];
+        this.reported = new HashSet<>();
+        allocate(64);
+    }
+
+    private void allocate(int currencies) {
+        dist = new double[bounds.maxHops + 1][currencies];
+        pred = new int[bounds.maxHops + 1][currencies];
+        for (int k = 0; k < bounds.maxHops; k++) {
+            frontier[k] = new int[currencies];
+        }
+        capacity = currencies;
+    }
+
+    @Override
+    public void detect(RateSnapshot snapshot, BitSet updatedEdges, Consumer<int[]> candidates) {
+        int currencies = matrix.getCurrencyCount();
+        if (currencies > capacity)
+            allocate(Math.max(capacity * 2, currencies));
+
+        long now = System.currentTimeMillis();
+        for (String anchor : bounds.anchors) {
+            int source = matrix.findCurrency(anchor);
+            if (source >= 0 && !bounds.isExcluded(matrix, source))
+                detect(snapshot, source, now, currencies, candidates);
+        }
+        reported.clear();
+    }
+
+    private void detect(RateSnapshot snapshot, int source, long now, int currencies, Consumer<int[]> candidates) {
+        for (double[] layer : dist) {
+            Arrays.fill(layer, 0, currencies, Double.POSITIVE_INFINITY);
+        }
+        dist[0][source] = 0;
+        frontier[0][0] = source;
+        frontierSize[0] = 1;
+
+        for (int k = 1; k <= bounds.maxHops; k++) {
+            int closingEdge = -1;
+            double closingDist = Double.POSITIVE_INFINITY;
+            if (k < bounds.maxHops)
+                frontierSize[k] = 0;
+
+            for (int f = 0; f < frontierSize[k - 1]; f++) {
+                int from = frontier[k - 1][f];
+
+                for (int i = 0; i < matrix.getOutDegree(from); i++) {
+                    int edge = matrix.getOutEdge(from, i);
+                    int to = matrix.getTo(edge);
+                    if (now - snapshot.getUpdatedAt(edge) > freshnessMillis || bounds.isExcluded(matrix, to))
+                        continue;
+
+                    double d = dist[k - 1][from] + snapshot.getLogWeight(edge) - snapshot.getFeeLog(edge);
+
+                    if (to == source) {
+                        if (d < closingDist) {
+                            closingDist = d;
+                            closingEdge = edge;
+                        }
+                        continue;
+                    }
+
+                    if (k == bounds.maxHops || d >= dist[k][to])
+                        continue;
+
+                    if (dist[k][to] == Double.POSITIVE_INFINITY)
+                        frontier[k][frontierSize[k]++] = to;
+                    dist[k][to] = d;
+                    pred[k][to] = edge;
+                }
+            }
+
+            if (k >= bounds.minHops && closingEdge >= 0) {
+                int[] cycle = reconstruct(closingEdge, k);
+                if (cycle != null && reported.add(CycleId.of(cycle)))
+                    candidates.accept(cycle);
+            }
+        }
+    }
+
+    /**
+     * @return cycle ending with the closing edge or null if the walk revisits a currency
+     */
+    private int[] reconstruct(int closingEdge, int hops) {
+        int[] cycle = new int[hops];
+        cycle[hops - 1] = closingEdge;
+        int current = matrix.getFrom(closingEdge);
+
+        for (int k = hops - 1; k > 0; k--) {
+            cycle[k - 1] = pred[k][current];
+            current = matrix.getFrom(cycle[k - 1]);
+        }
+
+        for (int i = 0; i < hops; i++) {
+            for (int j = i + 1; j < hops; j++) {
+                if (matrix.getFrom(cycle[i]) == matrix.getFrom(cycle[j]))
+                    return null;
+            }
+        }
+
+        return cycle;
+    }
+}
@@ -0,0 +1,81 @@
+package dev.natsoft.arbitrage.detection;
+
+import dev.natsoft.arbitrage.RateMatrix;
+import dev.natsoft.arbitrage.RateSnapshot;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+/**
+ * Enumerates the bounded simple cycles through the anchors with a depth limited DFS on each detection.
+ * The search is rooted at the anchors only and abandons a path as soon as it can't get back to its root
+ * within the hop bound. Every cycle is reported once, rooted at its lowest anchor id.
+ */
+public class BoundedDfsCycleDetector implements CycleDetector {
+    private final RateMatrix matrix;
+    private final CycleBounds bounds;
+    private final String[] anchors;
+    private final AnchorDistances[] distances;
+    private final int[] path;
+    private boolean[] visited;
+
+    public BoundedDfsCycleDetector(RateMatrix matrix, CycleBounds bounds) {
+        this.matrix = matrix;
+        this.bounds = bounds;
+        this.anchors = bounds.anchors.toArray(new String[0]);
+        this.distances = new AnchorDistances[anchors.length];
+        for (int i = 0; i < anchors.length; i++) {
+            distances[i] = new AnchorDistances(matrix, bounds, Collections.singleton(anchors[i]));
+        }
+        this.path = new int[bounds.maxHops];
+        this.visited = new boolean[64];
+    }
+
+    @Override
+    public void detect(RateSnapshot snapshot, BitSet updatedEdges, Consumer<int[]> candidates) {
+        int currencies = matrix.getCurrencyCount();
+        if (currencies > visited.length)
+            visited = new boolean[Math.max(visited.length * 2, currencies)];
+
+        for (int i = 0; i < anchors.length; i++) {
+            int root = matrix.findCurrency(anchors[i]);
+            if (root < 0 || bounds.isExcluded(matrix, root))
+                continue;
+
+            distances[i].update();
+            visited[root] = true;
+            search(root, root, 0, distances[i], candidates);
+            visited[root] = false;
+        }
+    }
+
+    private void search(int root, int current, int depth, AnchorDistances toRoot, Consumer<int[]> candidates) {
+        for (int i = 0; i < matrix.getOutDegree(current); i++) {
+            int edge = matrix.getOutEdge(current, i);
+            int next = matrix.getTo(edge);
+
+            if (next == root) {
+                if (depth + 1 >= bounds.minHops) {
+                    path[depth] = edge;
+                    candidates.accept(Arrays.copyOf(path, depth + 1));
+                }
+                continue;
+            }
+
+            if (depth + 1 >= bounds.maxHops || visited[next] || bounds.isExcluded(matrix, next))
+                continue;
+            // cycles through a lower anchor are found from that one
+            if (next < root && bounds.isAnchor(matrix, next))
+                continue;
+            if (depth + 1 + toRoot.toAnchor(next) > bounds.maxHops)
+                continue;
+
+            path[depth] = edge;
+            visited[next] = true;
+            search(root, next, depth + 1, toRoot, candidates);
+            visited[next] = false;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package dev.natsoft.arbitrage.detection;
+
+import dev.natsoft.arbitrage.RateMatrix;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Cycles worth detecting: rooted at one of the anchor currencies we trade from, within the hop bounds
+ * and avoiding the excluded currencies. Detectors apply them while searching rather than filtering afterwards.
+ * Configured with {@code -Darbitrage.detection.anchors}, {@code -Darbitrage.detection.excluded}
+ * (comma separated currencies) and {@code -Darbitrage.detection.maxHops}.
+ */
+public class CycleBounds {
+    public static final String ANCHORS_PROPERTY = "arbitrage.detection.anchors";
+    public static final String EXCLUDED_PROPERTY = "arbitrage.detection.excluded";
+    public static final String MAX_HOPS_PROPERTY = "arbitrage.detection.maxHops";
+
+    public final Set<String> anchors;
+    public final Set<String> excluded;
+    public final int minHops;
+    public final int maxHops;
+
+    public CycleBounds(Set<String> anchors, Set<String> excluded, int minHops, int maxHops) {
+        if (minHops < 2 || maxHops < minHops)
+            throw new IllegalArgumentException("Invalid hop bounds: " + minHops + ".." + maxHops);
+
+        this.anchors = Collections.unmodifiableSet(new LinkedHashSet<>(anchors));
+        this.excluded = Collections.unmodifiableSet(new LinkedHashSet<>(excluded));
+        this.minHops = minHops;
+        this.maxHops = maxHops;
+    }
+
+    public static CycleBounds defaults() {
+        return new CycleBounds(
+                Collections.singleton(DetectionStrategy.ANCHOR),
+                CycleDetector.EXCLUDED_CURRENCIES,
+                CycleDetector.MIN_HOPS,
+                CycleDetector.MAX_HOPS
+        );
+    }
+
+    public static CycleBounds fromSystemProperties() {
+        return new CycleBounds(
+                currencies(System.getProperty(ANCHORS_PROPERTY, DetectionStrategy.ANCHOR)),
+                currencies(System.getProperty(EXCLUDED_PROPERTY, String.join(",", CycleDetector.EXCLUDED_CURRENCIES))),
+                CycleDetector.MIN_HOPS,
+                Integer.getInteger(MAX_HOPS_PROPERTY, CycleDetector.MAX_HOPS)
+        );
+    }
+
+    private static Set<String> currencies(String list) {
+        Set<String> currencies = new LinkedHashSet<>();
+        Arrays.stream(list.split(","))
+                .map(String::trim)
+                .filter(currency -> !currency.isEmpty())
+                .map(String::toUpperCase)
+                .forEach(currencies::add);
+        return currencies;
+    }
+
+    public boolean isAnchor(RateMatrix matrix, int currency) {
+        return anchors.contains(matrix.currency(currency));
+    }
+
+    public boolean isExcluded(RateMatrix matrix, int currency) {
+        return excluded.contains(matrix.currency(currency));
+    }
+
+    /**
+     * @return true if the cycle of edge ids passes through one of the anchors
+     */
+    public boolean isAnchored(RateMatrix matrix, int[] cycle) {
+        for (int edge : cycle) {
+            if (isAnchor(matrix, matrix.getFrom(edge)))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "CycleBounds{anchors=" + anchors + ", excluded=" + excluded + ", hops=" + minHops + ".." + maxHops + "}";
+    }
+}
@@ -0,0 +1,36 @@
+package dev.natsoft.arbitrage.detection;
+
+import dev.natsoft.arbitrage.RateMatrix;
+import dev.natsoft.arbitrage.RateSnapshot;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Strategy finding candidate arbitrage cycles in the {@link RateMatrix}.
+ * <p>
+ * Candidates are arrays of edge ids forming a closed walk through one of the anchors of the {@link CycleBounds},
+ * they are scored and filtered by the caller. The constants are the defaults of the bounds.
+ * Implementations are called with the topology lock held and don't need to be thread safe,
+ * rates must be read from the given snapshot rather than the live matrix.
+ */
+public interface CycleDetector {
+    int MIN_HOPS = 3;
+    int MAX_HOPS = 5;
+    Set<String> EXCLUDED_CURRENCIES = Collections.singleton("LEO");
+
+    /**
+     * Called after a new edge was added to the matrix.
+     */
+    default void onEdgeAdded(int edge) {
+    }
+
+    /**
+     * @param snapshot     rates to detect against
+     * @param updatedEdges edges whose rates changed since the previous detection
+     * @param candidates   receives candidate cycles
+     */
+    void detect(RateSnapshot snapshot, BitSet updatedEdges, Consumer<int[]> candidates);
+}
@@ -0,0 +1,146 @@
+package dev.natsoft.arbitrage.detection;
+
+import dev.natsoft.arbitrage.RateMatrix;
+import dev.natsoft.arbitrage.RatesKnowledgeGraph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Index from every edge of the {@link RateMatrix} to the anchored, bounded simple cycles that contain it.
+ * <p>
+ * Cycles are discovered once, when the last of their edges is added to the matrix,
+ * so the full cycle set never has to be enumerated again on a tick. Only cycles through an anchor
+ * are searched for: a path without an anchor yet is abandoned as soon as it can't reach one and
+ * get back within the hop bound, see {@link CycleBounds} and {@link AnchorDistances}.
+ * Cycles are stored as arrays of edge ids and referenced by their position in the index.
+ * Not thread safe, guarded by the owning {@link RatesKnowledgeGraph}.
+ */
+public class CycleIndex {
+    private final RateMatrix matrix;
+    private final CycleBounds bounds;
+    private final AnchorDistances distances;
+    private final int[] path;
+    private int[][] cycles;
+    private int cycleCount;
+    private int[][] cyclesByEdge;
+    private int[] cyclesByEdgeCount;
+    private boolean[] visited;
+
+    public CycleIndex(RateMatrix matrix, CycleBounds bounds) {
+        this.matrix = matrix;
+        this.bounds = bounds;
+        this.distances = new AnchorDistances(matrix, bounds, bounds.anchors);
+        this.path = new int[bounds.maxHops];
+        this.cycles = new int[64][];
+        this.cyclesByEdge = new int[64][];
+        this.cyclesByEdgeCount = new int[64];
+        this.visited = new boolean[64];
+    }
+
+    /**
+     * Registers an edge that was just added to the matrix and indexes every new cycle going through it.
+     *
+     * @return number of new cycles
+     */
+    public int addEdge(int edge) {
+        ensureCapacity();
+
+        int from = matrix.getFrom(edge);
+        int to = matrix.getTo(edge);
+        if (bounds.isExcluded(matrix, from) || bounds.isExcluded(matrix, to))
+            return 0;
+
+        distances.update();
+        path[0] = edge;
+        visited[from] = true;
+        visited[to] = true;
+        int found = closeCycles(to, from, 1, bounds.isAnchor(matrix, from) || bounds.isAnchor(matrix, to));
+        visited[from] = false;
+        visited[to] = false;
+
+        return found;
+    }
+
+    private int closeCycles(int current, int start, int depth, boolean anchored) {
+        int found = 0;
+
+        for (int i = 0; i < matrix.getOutDegree(current); i++) {
+            int next = matrix.getOutEdge(current, i);
+            int nextTo = matrix.getTo(next);
+
+            if (nextTo == start) {
+                if (depth + 1 >= bounds.minHops && anchored) {
+                    path[depth] = next;
+                    register(Arrays.copyOf(path, depth + 1));
+                    found++;
+                }
+                continue;
+            }
+
+            if (depth + 1 >= bounds.maxHops || visited[nextTo] || bounds.isExcluded(matrix, nextTo))
+                continue;
+
+            // without an anchor yet, the rest of the cycle has to detour through one
+            boolean nextAnchored = anchored || bounds.isAnchor(matrix, nextTo);
+            if (!nextAnchored && depth + 1 + distances.toAnchor(nextTo) + distances.fromAnchor(start) > bounds.maxHops)
+                continue;
+
+            path[depth] = next;
+            visited[nextTo] = true;
+            found += closeCycles(nextTo, start, depth + 1, nextAnchored);
+            visited[nextTo] = false;
+        }
+
+        return found;
+    }
+
+    private void register(int[] cycle) {
+        if (cycleCount == cycles.length)
+            cycles = Arrays.copyOf(cycles, cycleCount * 2);
+
+        int id = cycleCount++;
+        cycles[id] = cycle;
+
+        for (int edge : cycle) {
+            int[] byEdge = cyclesByEdge[edge];
+            if (byEdge == null) {
+                byEdge = new int[4];
+            } else if (cyclesByEdgeCount[edge] == byEdge.length) {
+                byEdge = Arrays.copyOf(byEdge, byEdge.length * 2);
+            }
+            cyclesByEdge[edge] = byEdge;
+            byEdge[cyclesByEdgeCount[edge]++] = id;
+        }
+    }
+
+    private void ensureCapacity() {
+        if (matrix.getEdgeCount() > cyclesByEdge.length) {
+            int capacity = Math.max(cyclesByEdge.length * 2, matrix.getEdgeCount());
+            cyclesByEdge = Arrays.copyOf(cyclesByEdge, capacity);
+            cyclesByEdgeCount = Arrays.copyOf(cyclesByEdgeCount, capacity);
+        }
+        if (matrix.getCurrencyCount() > visited.length) {
+            visited = Arrays.copyOf(visited, Math.max(visited.length * 2, matrix.getCurrencyCount()));
+        }
+    }
+
+    /**
+     * Marks ids of all cycles going through any of the given edges.
+     */
+    public void collectAffected(BitSet edges, BitSet affectedCycles) {
+        for (int edge = edges.nextSetBit(0); edge >= 0; edge = edges.nextSetBit(edge + 1)) {
+            for (int i = 0; i < cyclesByEdgeCount[edge]; i++) {
+                affectedCycles.set(cyclesByEdge[edge][i]);
+            }
+        }
+    }
+
+    public int[] getCycle(int id) {
+        return cycles[id];
+    }
+
+    public int getCycleCount() {
+        return cycleCount;
+    }
+}
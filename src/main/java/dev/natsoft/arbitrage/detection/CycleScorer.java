@@ -0,0 +1,265 @@
+package dev.natsoft.arbitrage.detection;
+
+import dev.natsoft.arbitrage.RateSnapshot;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Buffers the candidate cycles of a detection pass and ranks the most profitable ones.
+ * <p>
+ * Candidates are streamed through a bounded heap of the top K, only the ranked ones ever get materialized
+ * by the caller. Small candidate sets are scored sequentially, once the threshold is reached they are split
+ * into chunks ranked on a dedicated {@link ForkJoinPool} and the chunk heaps are merged. Ties are broken by
+ * the order in which the candidates were added, so both paths always rank the same cycles.
+ * Cycles with an outdated rate are never ranked.
+ * Configured with {@code -Darbitrage.scoring.parallelism} (pool size, 1 disables parallel scoring),
+ * {@code -Darbitrage.scoring.threshold} (minimal number of candidates to go parallel)
+ * and {@code -Darbitrage.scoring.topK} (number of ranked cycles).
+ * Used by a single detection thread at a time.
+ */
+public class CycleScorer {
+    public static final String PARALLELISM_PROPERTY = "arbitrage.scoring.parallelism";
+    public static final String THRESHOLD_PROPERTY = "arbitrage.scoring.threshold";
+    public static final String TOP_K_PROPERTY = "arbitrage.scoring.topK";
+    private static final int MIN_CHUNK = 256;
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+    private final int topK;
+    private final int[][] ranked;
+    private final double[] rankedProfitLogs;
+    private int[][] candidates;
+    private int count;
+
+    public CycleScorer(int parallelism, int threshold) {
+        this(parallelism, threshold, 1);
+    }
+
+    public CycleScorer(int parallelism, int threshold, int topK) {
+        if (topK < 1)
+            throw new IllegalArgumentException("At least one cycle has to be ranked: " + topK);
+
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism, CycleScorer::newWorker, null, false) : null;
+        this.threshold = threshold;
+        this.topK = topK;
+        this.ranked = new int[topK][];
+        this.rankedProfitLogs = new double[topK];
+        this.candidates = new int[64][];
+    }
+
+    public static CycleScorer fromSystemProperties() {
+        return new CycleScorer(
+                Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger(THRESHOLD_PROPERTY, 4096),
+                Integer.getInteger(TOP_K_PROPERTY, 8)
+        );
+    }
+
+    private static ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("cycle-scoring-" + thread.getPoolIndex());
+        return thread;
+    }
+
+    public void add(int[] cycle) {
+        if (count == candidates.length)
+            candidates = Arrays.copyOf(candidates, count * 2);
+        candidates[count++] = cycle;
+    }
+
+    /**
+     * Ranks and clears the buffered candidates, the ranked cycles are read with {@link #getRanked(int)}
+     * until the next call.
+     *
+     * @return number of ranked cycles, at most the top K
+     */
+    public int rank(RateSnapshot snapshot, long now, long freshnessMillis) {
+        if (count == 0)
+            return 0;
+
+        TopK top;
+        if (pool == null || count < threshold) {
+            top = score(snapshot, now, freshnessMillis, 0, count);
+        } else {
+            int chunk = Math.max(MIN_CHUNK, count / (pool.getParallelism() * CHUNKS_PER_WORKER));
+            top = pool.invoke(new ScoringTask(this, snapshot, now, freshnessMillis, 0, count, chunk));
+        }
+
+        // popping the heap yields the worst first
+        int ranks = top.size;
+        for (int rank = ranks - 1; rank >= 0; rank--) {
+            rankedProfitLogs[rank] = top.profitLogs[0];
+            ranked[rank] = candidates[top.pop()];
+        }
+        Arrays.fill(candidates, 0, count, null);
+        count = 0;
+        return ranks;
+    }
+
+    /**
+     * @return cycle of the given rank, 0 being the most profitable
+     */
+    public int[] getRanked(int rank) {
+        return ranked[rank];
+    }
+
+    /**
+     * @return log of the profitability after fees of the cycle of the given rank
+     */
+    public double getRankedProfitLog(int rank) {
+        return rankedProfitLogs[rank];
+    }
+
+    /**
+     * Scores and clears the buffered candidates.
+     *
+     * @return most profitable candidate or null if there were none with fresh rates
+     */
+    public int[] best(RateSnapshot snapshot, long now, long freshnessMillis) {
+        return rank(snapshot, now, freshnessMillis) == 0 ? null : ranked[0];
+    }
+
+    private TopK score(RateSnapshot snapshot, long now, long freshnessMillis, int from, int to) {
+        TopK top = new TopK(topK);
+        for (int i = from; i < to; i++) {
+            double profitLog = snapshot.profitLog(candidates[i], now, freshnessMillis);
+            if (profitLog > Double.NEGATIVE_INFINITY)
+                top.offer(i, profitLog);
+        }
+        return top;
+    }
+
+    public int getParallelism() {
+        return pool == null ? 1 : pool.getParallelism();
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    /**
+     * Bounded min-heap of candidate indexes, the root is the worst of the kept ones.
+     */
+    private static class TopK {
+        final int[] indexes;
+        final double[] profitLogs;
+        int size;
+
+        TopK(int k) {
+            indexes = new int[k];
+            profitLogs = new double[k];
+        }
+
+        void offer(int index, double profitLog) {
+            if (size < indexes.length) {
+                indexes[size] = index;
+                profitLogs[size] = profitLog;
+                siftUp(size++);
+            } else if (worse(indexes[0], profitLogs[0], index, profitLog)) {
+                indexes[0] = index;
+                profitLogs[0] = profitLog;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * @return index of the worst kept candidate, removing it
+         */
+        int pop() {
+            int index = indexes[0];
+            size--;
+            indexes[0] = indexes[size];
+            profitLogs[0] = profitLogs[size];
+            siftDown(0);
+            return index;
+        }
+
+        TopK merge(TopK other) {
+            for (int i = 0; i < other.size; i++) {
+                offer(other.indexes[i], other.profitLogs[i]);
+            }
+            return this;
+        }
+
+        /**
+         * @return true if the first candidate ranks below the second one, the later candidate on a tie
+         */
+        private static boolean worse(int index, double profitLog, int otherIndex, double otherProfitLog) {
+            return profitLog < otherProfitLog || (profitLog == otherProfitLog && index > otherIndex);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(indexes[i], profitLogs[i], indexes[parent], profitLogs[parent]))
+                    return;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int worst = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && worse(indexes[left], profitLogs[left], indexes[worst], profitLogs[worst]))
+                    worst = left;
+                if (right < size && worse(indexes[right], profitLogs[right], indexes[worst], profitLogs[worst]))
+                    worst = right;
+                if (worst == i)
+                    return;
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int index = indexes[i];
+            indexes[i] = indexes[j];
+            indexes[j] = index;
+            double profitLog = profitLogs[i];
+            profitLogs[i] = profitLogs[j];
+            profitLogs[j] = profitLog;
+        }
+    }
+
+    // never serialized, fork join tasks are only Serializable by inheritance
+    @SuppressWarnings("serial")
+    private static class ScoringTask extends RecursiveTask<TopK> {
+        private final CycleScorer scorer;
+        private final RateSnapshot snapshot;
+        private final long now;
+        private final long freshnessMillis;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        ScoringTask(CycleScorer scorer, RateSnapshot snapshot, long now, long freshnessMillis, int from, int to, int chunk) {
+            this.scorer = scorer;
+            this.snapshot = snapshot;
+            this.now = now;
+            this.freshnessMillis = freshnessMillis;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected TopK compute() {
+            if (to - from <= chunk)
+                return scorer.score(snapshot, now, freshnessMillis, from, to);
+
+            int middle = (from + to) >>> 1;
+            ScoringTask left = new ScoringTask(scorer, snapshot, now, freshnessMillis, from, middle, chunk);
+            ScoringTask right = new ScoringTask(scorer, snapshot, now, freshnessMillis, middle, to, chunk);
+            left.fork();
+            TopK rightTop = right.compute();
+            return left.join().merge(rightTop);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package dev.natsoft.arbitrage.detection;
+
+import dev.natsoft.arbitrage.RateMatrix;
+import dev.natsoft.arbitrage.model.Market;
+import org.jgrapht.Graph;
+
+/**
+ * Available {@link CycleDetector} implementations, selected at startup with
+ * {@code -Darbitrage.detector=<name>}.
+ */
+public enum DetectionStrategy {
+    INDEXED,
+    SZWARCFITER_LAUER,
+    BELLMAN_FORD,
+    BOUNDED_DFS;
+
+    public static final String PROPERTY = "arbitrage.detector";
+    public static final String ANCHOR = "USD";
+
+    public static DetectionStrategy fromSystemProperties() {
+        return valueOf(System.getProperty(PROPERTY, INDEXED.name())
+                .trim()
+                .toUpperCase()
+                .replace('-', '_'));
+    }
+
+    public CycleDetector create(RateMatrix matrix, Graph<String, Market> graph, long freshnessMillis, CycleBounds bounds) {
+        switch (this) {
+            case SZWARCFITER_LAUER:
+                return new SzwarcfiterLauerCycleDetector(matrix, graph, bounds);
+            case BELLMAN_FORD:
+                return new BellmanFordCycleDetector(matrix, bounds, freshnessMillis);
+            case BOUNDED_DFS:
+                return new BoundedDfsCycleDetector(matrix, bounds);
+            case INDEXED:
+            default:
+                return new IndexedCycleDetector(matrix, bounds);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package dev.natsoft.arbitrage.detection;
+
+import dev.natsoft.arbitrage.RateMatrix;
+import dev.natsoft.arbitrage.RateSnapshot;
+
+import java.util.BitSet;
+import java.util.function.Consumer;
+
+/**
+ * Incremental detector, yields only the indexed cycles going through updated edges.
+ */
+public class IndexedCycleDetector implements CycleDetector {
+    private final CycleIndex cycleIndex;
+    private final BitSet affectedCycles;
+
+    public IndexedCycleDetector(RateMatrix matrix, CycleBounds bounds) {
+        this.cycleIndex = new CycleIndex(matrix, bounds);
+        this.affectedCycles = new BitSet();
+    }
+
+    @Override
+    public void onEdgeAdded(int edge) {
+        cycleIndex.addEdge(edge);
+    }
+
+    @Override
+    public void detect(RateSnapshot snapshot, BitSet updatedEdges, Consumer<int[]> candidates) {
+        cycleIndex.collectAffected(updatedEdges, affectedCycles);
+
+        for (int id = affectedCycles.nextSetBit(0); id >= 0; id = affectedCycles.nextSetBit(id + 1)) {
+            candidates.accept(cycleIndex.getCycle(id));
+        }
+        affectedCycles.clear();
+    }
+
+    public CycleIndex getCycleIndex() {
+        return cycleIndex;
+    }
+}
@@ -0,0 +1,50 @@
+package dev.natsoft.arbitrage.detection;
+
+import dev.natsoft.arbitrage.RateMatrix;
+import dev.natsoft.arbitrage.RateSnapshot;
+import dev.natsoft.arbitrage.model.Market;
+import org.jgrapht.Graph;
+import org.jgrapht.alg.cycle.SzwarcfiterLauerSimpleCycles;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Enumerates every simple cycle of the graph on each detection and keeps the bounded, anchored ones.
+ * Exponential in the graph density, kept as a reference for the other strategies.
+ */
+public class SzwarcfiterLauerCycleDetector implements CycleDetector {
+    private final RateMatrix matrix;
+    private final Graph<String, Market> graph;
+    private final CycleBounds bounds;
+
+    public SzwarcfiterLauerCycleDetector(RateMatrix matrix, Graph<String, Market> graph, CycleBounds bounds) {
+        this.matrix = matrix;
+        this.graph = graph;
+        this.bounds = bounds;
+    }
+
+    @Override
+    public void detect(RateSnapshot snapshot, BitSet updatedEdges, Consumer<int[]> candidates) {
+        new SzwarcfiterLauerSimpleCycles<>(graph)
+                .findSimpleCycles()
+                .stream()
+                .filter(c -> c.size() >= bounds.minHops)
+                .filter(c -> c.size() <= bounds.maxHops)
+                .filter(c -> c.stream().noneMatch(bounds.excluded::contains))
+                .filter(c -> c.stream().anyMatch(bounds.anchors::contains))
+                .map(this::toEdges)
+                .forEach(candidates);
+    }
+
+    private int[] toEdges(List<String> cycle) {
+        int[] edges = new int[cycle.size()];
+        for (int i = 0; i < cycle.size(); i++) {
+            int from = matrix.findCurrency(cycle.get(i));
+            int to = matrix.findCurrency(cycle.get((i + 1) % cycle.size()));
+            edges[i] = matrix.findEdge(from, to);
+        }
+        return edges;
+    }
+}
@@ -9,51 +9,110 @@ import com.github.jnidzwetzki.bitfinex.v2.entity.currency.BitfinexCurrencyPair;
 import com.github.jnidzwetzki.bitfinex.v2.exception.BitfinexClientException;
 import com.github.jnidzwetzki.bitfinex.v2.manager.QuoteManager;
 import com.github.jnidzwetzki.bitfinex.v2.symbol.BitfinexAccountSymbol;
+import com.github.jnidzwetzki.bitfinex.v2.symbol.BitfinexOrderBookSymbol;
+import com.github.jnidzwetzki.bitfinex.v2.symbol.BitfinexStreamSymbol;
 import com.github.jnidzwetzki.bitfinex.v2.symbol.BitfinexSymbols;
 import com.github.jnidzwetzki.bitfinex.v2.symbol.BitfinexTickerSymbol;
 import dev.natsoft.arbitrage.ArbitrageDetector;
 import dev.natsoft.arbitrage.Constants;
 import dev.natsoft.arbitrage.RatesKnowledgeGraph;
+import dev.natsoft.arbitrage.TickerHandle;
 import dev.natsoft.arbitrage.model.Market;
-import io.reactivex.rxjava3.core.Flowable;
+import dev.natsoft.arbitrage.model.OrderBook;
+import dev.natsoft.arbitrage.replay.TickRecorder;
+import dev.natsoft.arbitrage.ring.TickEvent;
+import dev.natsoft.arbitrage.ring.TickRateLogger;
+import dev.natsoft.arbitrage.ring.TickRing;
 import io.reactivex.rxjava3.core.Observable;
-import io.reactivex.rxjava3.processors.PublishProcessor;
-import io.reactivex.rxjava3.schedulers.Schedulers;
 import io.reactivex.rxjava3.subjects.PublishSubject;
 import io.reactivex.rxjava3.subjects.Subject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class Bitfinex implements Exchange {
     private static final Logger LOGGER = LoggerFactory.getLogger(ArbitrageDetector.class);
-
-    private final PublishProcessor<String> ticksProcessor;
-    private final Flowable<String> ticks;
+    public static final String RECORD_PROPERTY = "arbitrage.record.file";
+    /**
+     * Price points of the order books subscribed per pair (1, 25, 100 or 250), 0 disables the books
+     */
+    public static final String BOOK_DEPTH_PROPERTY = "arbitrage.book.depth";
+    /**
+     * Threads subscribing the qualified tickers at startup, spread over the pooled connections
+     */
+    public static final String SUBSCRIBERS_PROPERTY = "arbitrage.universe.subscribers";
+    /**
+     * Tickers outside of the qualified universe subscribed per second in the background
+     */
+    public static final String REVALIDATION_RATE_PROPERTY = "arbitrage.universe.revalidationRate";
+    private static final long UNIVERSE_SAVE_SECONDS = 30;
+
+    private final TickRing ticks;
     private final Subject<BigDecimal> USDUpdates;
-    private final PublishSubject<BitfinexSubmittedOrder> orderUpdates;
+    private final Map<Long, CompletableFuture<BitfinexSubmittedOrder>> pendingOrders;
+    private final Map<BitfinexOrderBookSymbol, OrderBook> books;
+    private final Set<BitfinexOrderBookSymbol> awaitingSnapshot;
+    private final TickRecorder recorder;
+    private final int bookDepth;
+    private final MarketUniverse universe;
 
-    private boolean busy;
     private BitfinexWebsocketClient privateClient;
     private BitfinexWebsocketClient publicClient;
     private RatesKnowledgeGraph ratesKnowledgeGraph;
 
     public Bitfinex() {
-        ticksProcessor = PublishProcessor.create();
-        this.ticks = ticksProcessor.onBackpressureDrop();
-        ticks.buffer(10, TimeUnit.SECONDS).subscribe(l -> {
-            LOGGER.info("In last 10s got ticker {} updates: {}", l.size(), l);
-        });
-
+        this.ticks = TickRing.fromSystemProperties();
         this.USDUpdates = PublishSubject.create();
-        this.orderUpdates = PublishSubject.create();
+        this.pendingOrders = new ConcurrentHashMap<>();
+        this.books = new ConcurrentHashMap<>();
+        this.awaitingSnapshot = ConcurrentHashMap.newKeySet();
+
+        this.recorder = openRecorder(System.getProperty(RECORD_PROPERTY));
+        this.bookDepth = Integer.getInteger(BOOK_DEPTH_PROPERTY, 25);
+        this.universe = MarketUniverse.fromSystemProperties();
+        Runtime.getRuntime().addShutdownHook(new Thread(universe::save, "universe-save"));
+    }
 
-        this.busy = false;
+    /**
+     * @return recorder of the raw ticks or null if recording is disabled
+     */
+    private static TickRecorder openRecorder(String file) {
+        if (file == null)
+            return null;
+
+        try {
+            TickRecorder recorder = new TickRecorder(Paths.get(file));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    recorder.close();
+                } catch (IOException e) {
+                    LOGGER.error("Failed to close tick recording {}", file, e);
+                }
+            }, "tick-recorder-close"));
+            LOGGER.info("Recording ticks to {}", file);
+            return recorder;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private void handleWalletUpdate(BitfinexAccountSymbol bitfinexAccountSymbol, Collection<BitfinexWallet> bitfinexWallets) {
@@ -68,7 +127,7 @@ public class Bitfinex implements Exchange {
                 });
     }
 
-    public Flowable<String> getTickerStream() {
+    public TickRing getTickRing() {
         return ticks;
     }
 
@@ -76,11 +135,19 @@ public class Bitfinex implements Exchange {
         return USDUpdates;
     }
 
+    public MarketUniverse getUniverse() {
+        return universe;
+    }
+
     @Override
     public void startUpdating(RatesKnowledgeGraph ratesKnowledgeGraph) {
         this.ratesKnowledgeGraph = ratesKnowledgeGraph;
-        ratesKnowledgeGraph.registerTickerStream(ticks);
-        busy = true;
+        ratesKnowledgeGraph.registerTickRing(ticks);
+        if (recorder != null)
+            ticks.addHandler("recording", (event, sequence) ->
+                    recorder.record(event.recordedId, event.timestamp, event.bid, event.ask, event.volume), true);
+        ticks.addHandler("rate-log", new TickRateLogger(10, TimeUnit.SECONDS), false);
+        ticks.start();
 
         BitfinexCurrencyPair.registerDefaults();
         BitfinexWebsocketConfiguration config = new BitfinexWebsocketConfiguration();
@@ -106,23 +173,94 @@ public class Bitfinex implements Exchange {
 
         publicClient = BitfinexClientFactory.newPooledClient();
         publicClient.connect();
+        publicClient.getCallbacks().onSubscribeChannelEvent(this::handleSubscribed);
+        publicClient.getCallbacks().onOrderbookEvent(this::handleOrderBookEvent);
 
         LOGGER.info("Starting tickers subscriptsions");
-        BitfinexCurrencyPair.values()
-                .stream()
-                .filter(p -> !p.toBitfinexString().contains("CNH")) // Stupid Bitfinex lists invalid markets
-                .filter(p -> !p.toBitfinexString().contains("DUSK"))
-                .filter(p -> !p.toBitfinexString().contains("XAU"))
-                .filter(p -> !p.toBitfinexString().contains("USTF0"))
-                .filter(p -> !p.toBitfinexString().contains("RING"))
-                .forEach(this::watchInstrument);
-        LOGGER.info("Done subscribing to tickers");
+        List<BitfinexCurrencyPair> qualified = new ArrayList<>();
+        Deque<BitfinexCurrencyPair> pending = new ArrayDeque<>();
+        List<BitfinexCurrencyPair> excluded = new ArrayList<>();
+        for (BitfinexCurrencyPair pair : BitfinexCurrencyPair.values()) {
+            String symbol = pair.toBitfinexString();
+            if (MarketUniverse.isInvalidMarket(symbol)) // Stupid Bitfinex lists invalid markets
+                continue;
+
+            // without a saved universe there is nothing to prioritize
+            if (universe.isEmpty() || universe.isQualified(symbol))
+                qualified.add(pair);
+            else if (universe.isExcluded(symbol))
+                excluded.add(pair);
+            else
+                pending.add(pair);
+        }
+        // pairs never seen come first, the excluded ones are least likely to qualify now
+        pending.addAll(excluded);
 
-        busy = false;
+        subscribeAll(qualified);
+        LOGGER.info("Done subscribing to {} tickers, revalidating {} more in the background", qualified.size(), pending.size());
+        revalidateInBackground(pending);
     }
 
-    private void publishOrderUpdate(BitfinexAccountSymbol bitfinexAccountSymbol, BitfinexSubmittedOrder bitfinexSubmittedOrder) {
-        orderUpdates.onNext(bitfinexSubmittedOrder);
+    /**
+     * Subscribes the tickers in parallel, returns once all the subscriptions were sent.
+     */
+    private void subscribeAll(List<BitfinexCurrencyPair> pairs) {
+        ExecutorService subscribers = Executors.newFixedThreadPool(Integer.getInteger(SUBSCRIBERS_PROPERTY, 4),
+                r -> new Thread(r, "ticker-subscription"));
+        try {
+            CompletableFuture.allOf(pairs.stream()
+                    .map(pair -> CompletableFuture.runAsync(() -> watchInstrument(pair), subscribers)
+                            .exceptionally(e -> {
+                                LOGGER.error("Failed to subscribe {}", pair, e);
+                                return null;
+                            }))
+                    .toArray(CompletableFuture[]::new)
+            ).join();
+        } finally {
+            subscribers.shutdown();
+        }
+    }
+
+    /**
+     * Subscribes the tickers outside of the qualified universe one by one at a limited rate, so they don't delay
+     * the qualified ones, and saves the universe as they get qualified or excluded by their first ticks.
+     */
+    private void revalidateInBackground(Deque<BitfinexCurrencyPair> pending) {
+        ScheduledExecutorService revalidation = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "universe-revalidation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long periodMicros = TimeUnit.SECONDS.toMicros(1) / Math.max(1, Integer.getInteger(REVALIDATION_RATE_PROPERTY, 5));
+        revalidation.scheduleWithFixedDelay(() -> {
+            BitfinexCurrencyPair pair = pending.poll();
+            if (pair == null)
+                return;
+            try {
+                watchInstrument(pair);
+            } catch (Exception e) {
+                LOGGER.error("Failed to subscribe {}", pair, e);
+            }
+        }, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+        revalidation.scheduleWithFixedDelay(universe::save, UNIVERSE_SAVE_SECONDS, UNIVERSE_SAVE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void publishOrderUpdate(BitfinexAccountSymbol bitfinexAccountSymbol, BitfinexSubmittedOrder submittedOrder) {
+        if (submittedOrder.getStatus() != BitfinexSubmittedOrderStatus.EXECUTED
+                && submittedOrder.getStatus() != BitfinexSubmittedOrderStatus.CANCELED
+                && submittedOrder.getStatus() != BitfinexSubmittedOrderStatus.ERROR)
+            return;
+
+        CompletableFuture<BitfinexSubmittedOrder> fill = pendingOrders.remove(submittedOrder.getClientId());
+        if (fill == null)
+            return;
+
+        LOGGER.info("Order finished: {}", submittedOrder);
+
+        if (submittedOrder.getStatus() == BitfinexSubmittedOrderStatus.ERROR)
+            fill.completeExceptionally(new BitfinexClientException(submittedOrder.getStatusDescription()));
+        else
+            fill.complete(submittedOrder);
     }
 
     @Override
@@ -134,14 +272,13 @@ public class Bitfinex implements Exchange {
     }
 
     @Override
-    public BitfinexSubmittedOrder trade(Market market, BigDecimal sourceAmount) {
-        if (busy) {
-            LOGGER.warn("Bitfinex client too busy to trade.");
-            throw new BitfinexClientException("Bitfinex client too busy");
+    public CompletableFuture<BitfinexSubmittedOrder> tradeAsync(Market market, BigDecimal sourceAmount) {
+        CompletableFuture<BitfinexSubmittedOrder> fill = new CompletableFuture<>();
+        if (privateClient == null) {
+            fill.completeExceptionally(new BitfinexClientException("Bitfinex client not connected"));
+            return fill;
         }
 
-        busy = true;
-
         LOGGER.info("Trading {}->{}, amount: {}", market.from, market.to, Constants.DF.format(sourceAmount));
 
         BitfinexCurrencyPair pair;
@@ -160,35 +297,32 @@ public class Bitfinex implements Exchange {
                 targetAmount
         ).build();
 
-        LOGGER.info("Order placed for {}->{}({}), amount: {}", market.from, market.to, pair.toString(), Constants.DF.format(sourceAmount));
-
-        privateClient.getOrderManager().placeOrder(order);
-
-        BitfinexSubmittedOrder submittedOrder = orderUpdates
-                .observeOn(Schedulers.io())
-                .filter(so -> so.getClientId() == order.getClientId())
-                .filter(so -> so.getStatus() == BitfinexSubmittedOrderStatus.EXECUTED
-                        || so.getStatus() == BitfinexSubmittedOrderStatus.CANCELED
-                        || so.getStatus() == BitfinexSubmittedOrderStatus.ERROR)
-                .blockingFirst();
-
-        LOGGER.info("Order finished: {}", submittedOrder);
-
-        if (submittedOrder.getStatus() == BitfinexSubmittedOrderStatus.ERROR) {
-            busy = false;
-            throw new BitfinexClientException(submittedOrder.getStatusDescription());
+        // registered before placing, the fill may come back before placeOrder returns
+        pendingOrders.put(order.getClientId(), fill);
+        try {
+            privateClient.getOrderManager().placeOrder(order);
+        } catch (Exception e) {
+            pendingOrders.remove(order.getClientId());
+            fill.completeExceptionally(e);
+            return fill;
         }
 
-        busy = false;
-        return submittedOrder;
+        LOGGER.info("Order placed for {}->{}({}), amount: {}", market.from, market.to, pair.toString(), Constants.DF.format(sourceAmount));
+
+        return fill;
     }
 
     @Override
     public BigDecimal getUSDBalance() {
+        return getBalance("USD");
+    }
+
+    @Override
+    public BigDecimal getBalance(String currency) {
         return privateClient.getWalletManager()
                 .getWallets()
                 .stream()
-                .filter(wal -> wal.getCurrency().equals("USD"))
+                .filter(wal -> wal.getCurrency().equals(currency))
                 .map(BitfinexWallet::getBalanceAvailable)
                 .filter(Objects::nonNull)
                 .findAny()
@@ -198,49 +332,135 @@ public class Bitfinex implements Exchange {
     private void watchInstrument(BitfinexCurrencyPair pair) {
         LOGGER.debug("Watching {}", pair);
         final QuoteManager quoteManager = publicClient.getQuoteManager();
-        final BitfinexTickerSymbol symbol = BitfinexSymbols.ticker(pair);
+        final Ticker ticker = new Ticker(pair, BitfinexSymbols.ticker(pair), pair.getCurrency1(), pair.getCurrency2());
+        if (recorder != null)
+            ticker.recordedId = recorder.register(ticker.from, ticker.to);
 
-        quoteManager.registerTickCallback(symbol, this::handleTick);
-        quoteManager.subscribeTicker(symbol);
+        quoteManager.registerTickCallback(ticker.symbol, (symbol, tick) -> handleTick(ticker, tick));
+        quoteManager.subscribeTicker(ticker.symbol);
     }
 
-    private void handleTick(BitfinexTickerSymbol symbol, BitfinexTick tick) {
+    private void handleTick(Ticker ticker, BitfinexTick tick) {
+        long received = System.nanoTime();
         try {
-            BigDecimal vol = tick.getVolume();
-            BigDecimal rate = tick.getBid();
-            BigDecimal reverseRate = new BigDecimal(1).divide(tick.getAsk(), 100, RoundingMode.HALF_DOWN);
-            BigDecimal spreadRate = new BigDecimal(1).subtract(rate.multiply(reverseRate)).multiply(new BigDecimal(100));
-
-            LOGGER.debug(String.format("[%s] spread rate: %s, vol: %s",
-                    symbol.getCurrency(),
-                    Constants.DF.format(spreadRate),
-                    Constants.DF.format(vol)
-            ));
-
-            if (tick.getVolume().compareTo(new BigDecimal(3000)) < 0
-                    || spreadRate.compareTo(new BigDecimal("1.5")) > 0) {
-                publicClient.getQuoteManager().unsubscribeTicker(symbol);
-                LOGGER.debug("Dropping {} for spread or volume thresholds", symbol);
-                return;
+            double vol = tick.getVolume().doubleValue();
+            double bid = tick.getBid().doubleValue();
+            double ask = tick.getAsk().doubleValue();
+
+            if (LOGGER.isTraceEnabled())
+                LOGGER.trace("[{}] (bid: {}, ask: {}, spread rate: {}, vol: {})",
+                        ticker.symbol, bid, ask, spreadRate(bid, ask), vol);
+
+            boolean qualified = meetsThresholds(vol, bid, ask);
+            if (qualified && ticker.handle == null) {
+                universe.qualify(ticker.symbolString);
+                ticker.handle = ratesKnowledgeGraph.bindTicker(ticker.from, ticker.to, this);
+                if (bookDepth > 0)
+                    watchOrderBook(ticker);
             }
-            ticksProcessor.onNext(symbol.getCurrency().toBitfinexString());
-
-            LOGGER.debug(String.format("[%s] (bid: %s, ask: %s, spread: %s)",
-                    symbol.getCurrency(),
-                    tick.getBid(),
-                    tick.getAsk(),
-                    tick.getAsk().subtract(tick.getBid())
-            ));
-            String[] currencies = symbol.getCurrency().toString().split(":");
-            String from = currencies[0];
-            String to = currencies[1];
-
-            ratesKnowledgeGraph.updateSecurity(new Market(from, to, this).setRate(rate).setPrice(tick.getBid()));
-            ratesKnowledgeGraph.updateSecurity(new Market(to, from, this).setRate(reverseRate).setPrice(tick.getAsk()));
 
+            // dropped ticks still go to the recording, the graph ignores them
+            if (qualified || recorder != null)
+                publishTick(qualified ? ticker.handle : null, ticker.recordedId, bid, ask, vol, received);
+
+            if (!qualified) {
+                universe.exclude(ticker.symbolString);
+                publicClient.getQuoteManager().unsubscribeTicker(ticker.symbol);
+                if (ticker.bookSymbol != null) {
+                    publicClient.getOrderbookManager().unsubscribeOrderbook(ticker.bookSymbol);
+                    books.remove(ticker.bookSymbol);
+                    awaitingSnapshot.remove(ticker.bookSymbol);
+                }
+                LOGGER.debug("Dropping {} for spread or volume thresholds", ticker.symbol);
+            }
         } catch (Exception e) {
             LOGGER.error(e.getMessage(), e);
         }
     }
 
+    private void publishTick(TickerHandle handle, int recordedId, double bid, double ask, double volume, long received) {
+        long sequence = ticks.next();
+        TickEvent event = ticks.get(sequence);
+        event.ticker = handle;
+        event.recordedId = recordedId;
+        event.bid = bid;
+        event.ask = ask;
+        event.volume = volume;
+        event.timestamp = System.currentTimeMillis();
+        event.receivedNanos = received;
+        ticks.publish(sequence);
+    }
+
+    /**
+     * Subscribes the book of a ticker that made it into the graph, books of the dropped ones aren't worth the traffic.
+     */
+    private void watchOrderBook(Ticker ticker) {
+        OrderBook book = new OrderBook(bookDepth);
+        ticker.bookSymbol = BitfinexSymbols.orderBook(ticker.pair,
+                BitfinexOrderBookSymbol.Precision.P0, BitfinexOrderBookSymbol.Frequency.F0, bookDepth);
+
+        books.put(ticker.bookSymbol, book);
+        publicClient.getOrderbookManager().subscribeOrderbook(ticker.bookSymbol);
+        ticker.handle.attachOrderBook(book);
+    }
+
+    /**
+     * The first book message after a (re)subscription is the snapshot, the channel confirmation comes
+     * right before it on the same connection.
+     */
+    private void handleSubscribed(BitfinexStreamSymbol symbol) {
+        if (symbol instanceof BitfinexOrderBookSymbol && books.containsKey(symbol))
+            awaitingSnapshot.add((BitfinexOrderBookSymbol) symbol);
+    }
+
+    /**
+     * Applies the entries of a book message. Snapshots replace the whole book, so levels gone while
+     * disconnected don't linger, updates change single levels.
+     */
+    private void handleOrderBookEvent(BitfinexOrderBookSymbol symbol, Collection<BitfinexOrderBookEntry> entries) {
+        OrderBook book = books.get(symbol);
+        if (book == null)
+            return;
+
+        if (awaitingSnapshot.remove(symbol))
+            book.clear();
+        for (BitfinexOrderBookEntry entry : entries) {
+            book.update(entry.getPrice().doubleValue(), entry.getCount(), entry.getAmount().doubleValue());
+        }
+    }
+
+    /**
+     * @return spread in percents
+     */
+    public static double spreadRate(double bid, double ask) {
+        return (1 - bid / ask) * 100;
+    }
+
+    public static boolean meetsThresholds(double volume, double bid, double ask) {
+        return bid > 0 && ask > 0
+                && volume >= 3000
+                && spreadRate(bid, ask) <= 1.5;
+    }
+
+    /**
+     * Ticker subscription, resolved to its graph edges on the first tick meeting the thresholds.
+     */
+    private static class Ticker {
+        final BitfinexCurrencyPair pair;
+        final BitfinexTickerSymbol symbol;
+        final String symbolString;
+        final String from;
+        final String to;
+        int recordedId;
+        TickerHandle handle;
+        BitfinexOrderBookSymbol bookSymbol;
+
+        Ticker(BitfinexCurrencyPair pair, BitfinexTickerSymbol symbol, String from, String to) {
+            this.pair = pair;
+            this.symbol = symbol;
+            this.symbolString = pair.toBitfinexString();
+            this.from = from;
+            this.to = to;
+        }
+    }
 }
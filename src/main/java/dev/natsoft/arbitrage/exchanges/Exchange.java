@@ -6,20 +6,51 @@ import dev.natsoft.arbitrage.model.Market;
 import io.reactivex.rxjava3.core.Observable;
 
 import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 public interface Exchange {
     void startUpdating(RatesKnowledgeGraph ratesKnowledgeGraph);
 
+    /**
+     * @return name identifying the exchange across restarts, see {@link dev.natsoft.arbitrage.GraphCheckpoint}
+     */
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+
     BigDecimal getTakerFee();
 
+    /**
+     * Places a market order without waiting for it, must not block the calling thread
+     *
+     * @return executed trade information, completed once the exchange reports the order finished
+     */
+    CompletableFuture<BitfinexSubmittedOrder> tradeAsync(Market market, BigDecimal amount);
+
     /**
      * Should be blocking until the trade comes through
      *
      * @return executed trade information
      */
-    BitfinexSubmittedOrder trade(Market market, BigDecimal amount) throws Exception;
+    default BitfinexSubmittedOrder trade(Market market, BigDecimal amount) throws Exception {
+        try {
+            return tradeAsync(market, amount).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+            throw e;
+        }
+    }
 
     BigDecimal getUSDBalance();
 
+    /**
+     * @return available balance of the currency
+     */
+    default BigDecimal getBalance(String currency) {
+        return "USD".equals(currency) ? getUSDBalance() : BigDecimal.ZERO;
+    }
+
     Observable<BigDecimal> getUSDUpdatesStream();
 }
@@ -0,0 +1,147 @@
+package dev.natsoft.arbitrage.exchanges;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Symbols of an exchange worth subscribing to, remembered between runs so that startup can subscribe
+ * the last qualified universe right away instead of waiting for the first tick of every listed pair.
+ * <p>
+ * A symbol is qualified once one of its ticks met the thresholds and excluded when one didn't,
+ * symbols matching the invalid markets are never subscribed at all. Persisted as lines of
+ * {@code Q <symbol>} and {@code X <symbol>} to {@code -Darbitrage.universe.file}.
+ */
+public class MarketUniverse {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketUniverse.class);
+    public static final String FILE_PROPERTY = "arbitrage.universe.file";
+    /**
+     * Markets listed by Bitfinex that can't be traded
+     */
+    public static final List<String> INVALID_MARKETS = Arrays.asList("CNH", "DUSK", "XAU", "USTF0", "RING");
+    private static final String QUALIFIED = "Q";
+    private static final String EXCLUDED = "X";
+
+    private final Path file;
+    private final Set<String> qualified = ConcurrentHashMap.newKeySet();
+    private final Set<String> excluded = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    public MarketUniverse(Path file) {
+        this.file = file;
+    }
+
+    public static MarketUniverse fromSystemProperties() {
+        MarketUniverse universe = new MarketUniverse(Paths.get(System.getProperty(FILE_PROPERTY, "tmp/universe.txt")));
+        universe.load();
+        return universe;
+    }
+
+    private void load() {
+        if (!Files.exists(file))
+            return;
+
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length != 2)
+                    continue;
+                if (QUALIFIED.equals(fields[0]))
+                    qualified.add(fields[1]);
+                else if (EXCLUDED.equals(fields[0]))
+                    excluded.add(fields[1]);
+            }
+            LOGGER.info("Loaded market universe of {} qualified and {} excluded symbols from {}",
+                    qualified.size(), excluded.size(), file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to load market universe from {}, starting from scratch", file, e);
+            qualified.clear();
+            excluded.clear();
+        }
+    }
+
+    /**
+     * Writes the universe if it changed since the last save, through a temporary file so a crash never leaves it truncated.
+     */
+    public synchronized void save() {
+        if (!dirty.getAndSet(false))
+            return;
+
+        try {
+            if (file.getParent() != null)
+                Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (String symbol : qualified) {
+                    out.write(QUALIFIED + " " + symbol);
+                    out.newLine();
+                }
+                for (String symbol : excluded) {
+                    out.write(EXCLUDED + " " + symbol);
+                    out.newLine();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty.set(true);
+            LOGGER.error("Failed to save market universe to {}", file, e);
+        }
+    }
+
+    public static boolean isInvalidMarket(String symbol) {
+        for (String market : INVALID_MARKETS) {
+            if (symbol.contains(market))
+                return true;
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return qualified.isEmpty() && excluded.isEmpty();
+    }
+
+    public boolean isQualified(String symbol) {
+        return qualified.contains(symbol);
+    }
+
+    public boolean isExcluded(String symbol) {
+        return excluded.contains(symbol);
+    }
+
+    public Collection<String> getQualified() {
+        return Collections.unmodifiableSet(qualified);
+    }
+
+    public void qualify(String symbol) {
+        boolean changed = qualified.add(symbol);
+        changed |= excluded.remove(symbol);
+        if (changed)
+            dirty.set(true);
+    }
+
+    public void exclude(String symbol) {
+        boolean changed = excluded.add(symbol);
+        changed |= qualified.remove(symbol);
+        if (changed)
+            dirty.set(true);
+    }
+
+    @Override
+    public String toString() {
+        return "MarketUniverse{qualified=" + qualified.size() + ", excluded=" + excluded.size() + "}";
+    }
+}
@@ -0,0 +1,196 @@
+package dev.natsoft.arbitrage.exchanges;
+
+import com.github.jnidzwetzki.bitfinex.v2.entity.BitfinexSubmittedOrder;
+import com.github.jnidzwetzki.bitfinex.v2.entity.currency.BitfinexCurrencyPair;
+import dev.natsoft.arbitrage.RatesKnowledgeGraph;
+import dev.natsoft.arbitrage.TickerHandle;
+import dev.natsoft.arbitrage.model.Market;
+import dev.natsoft.arbitrage.replay.RecordedTick;
+import dev.natsoft.arbitrage.replay.TickReader;
+import dev.natsoft.arbitrage.ring.TickEvent;
+import dev.natsoft.arbitrage.ring.TickRing;
+import io.reactivex.rxjava3.core.Observable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds a {@link dev.natsoft.arbitrage.replay.TickRecorder} recording into the graph, applying the same
+ * thresholds as {@link Bitfinex} does to live ticks.
+ * <p>
+ * With a speed of 0 the ticks are replayed as fast as possible, otherwise the recorded gaps between
+ * them are kept, divided by the speed. Configured with {@code -Darbitrage.replay.file}
+ * and {@code -Darbitrage.replay.speed}. Replay doesn't trade.
+ */
+public class ReplayExchange implements Exchange {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplayExchange.class);
+    public static final String FILE_PROPERTY = "arbitrage.replay.file";
+    public static final String SPEED_PROPERTY = "arbitrage.replay.speed";
+
+    private final Path recording;
+    private final double speed;
+    private final BigDecimal takerFee;
+    private final TickRing ticks;
+    private final CountDownLatch done;
+    private RatesKnowledgeGraph ratesKnowledgeGraph;
+    private TickerHandle[] handles;
+    private boolean[] dropped;
+    private volatile long replayed;
+
+    public ReplayExchange(Path recording, double speed, BigDecimal takerFee) {
+        this.recording = recording;
+        this.speed = speed;
+        this.takerFee = takerFee;
+        this.ticks = TickRing.fromSystemProperties();
+        this.done = new CountDownLatch(1);
+        this.handles = new TickerHandle[0];
+        this.dropped = new boolean[0];
+    }
+
+    public static ReplayExchange fromSystemProperties() {
+        return new ReplayExchange(
+                Paths.get(System.getProperty(FILE_PROPERTY)),
+                Double.parseDouble(System.getProperty(SPEED_PROPERTY, "0")),
+                new BigDecimal("0.00200")
+        );
+    }
+
+    @Override
+    public void startUpdating(RatesKnowledgeGraph ratesKnowledgeGraph) {
+        this.ratesKnowledgeGraph = ratesKnowledgeGraph;
+        ratesKnowledgeGraph.registerTickRing(ticks);
+        ticks.start();
+
+        Thread replay = new Thread(this::replay, "tick-replay");
+        replay.setDaemon(true);
+        replay.start();
+    }
+
+    private void replay() {
+        LOGGER.info("Replaying ticks from {} at speed {}", recording, speed);
+        RecordedTick tick = new RecordedTick();
+        long started = System.nanoTime();
+        long firstTimestamp = -1;
+
+        try (TickReader reader = new TickReader(recording)) {
+            while (reader.next(tick)) {
+                if (firstTimestamp < 0)
+                    firstTimestamp = tick.timestamp;
+                if (speed > 0)
+                    awaitRecordedTime(started, tick.timestamp - firstTimestamp);
+
+                handleTick(reader, tick);
+                replayed++;
+            }
+        } catch (IOException e) {
+            LOGGER.error("Replay of {} failed", recording, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            long elapsed = System.nanoTime() - started;
+            LOGGER.info("Replayed {} ticks in {} ms ({} ticks/s)", replayed, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                    elapsed > 0 ? replayed * TimeUnit.SECONDS.toNanos(1) / elapsed : replayed);
+            done.countDown();
+        }
+    }
+
+    private void awaitRecordedTime(long started, long offsetMillis) throws InterruptedException {
+        long due = started + (long) (TimeUnit.MILLISECONDS.toNanos(offsetMillis) / speed);
+        long remaining = due - System.nanoTime();
+        if (remaining > 0)
+            TimeUnit.NANOSECONDS.sleep(remaining);
+    }
+
+    private void handleTick(TickReader reader, RecordedTick tick) {
+        long received = System.nanoTime();
+        int id = tick.symbolId;
+        if (id >= handles.length) {
+            handles = Arrays.copyOf(handles, reader.getSymbolCount());
+            dropped = Arrays.copyOf(dropped, reader.getSymbolCount());
+        }
+        if (dropped[id])
+            return;
+
+        if (!Bitfinex.meetsThresholds(tick.volume, tick.bid, tick.ask)) {
+            // the live exchange unsubscribes, so later ticks of the symbol are ignored as well
+            dropped[id] = true;
+            return;
+        }
+
+        if (handles[id] == null) {
+            registerPair(reader.getFrom(id), reader.getTo(id));
+            handles[id] = ratesKnowledgeGraph.bindTicker(reader.getFrom(id), reader.getTo(id), this);
+        }
+
+        long sequence = ticks.next();
+        TickEvent event = ticks.get(sequence);
+        event.ticker = handles[id];
+        event.recordedId = id;
+        event.bid = tick.bid;
+        event.ask = tick.ask;
+        event.volume = tick.volume;
+        event.timestamp = tick.timestamp;
+        event.receivedNanos = received;
+        ticks.publish(sequence);
+    }
+
+    /**
+     * Registers the recorded pair like the live exchange does with the listed ones, recordings
+     * keep the base currency first, so trades know which side of the pair they are on.
+     */
+    private static void registerPair(String base, String quote) {
+        try {
+            BitfinexCurrencyPair.register(base, quote, 0);
+        } catch (IllegalArgumentException alreadyKnown) {
+            // registered by an earlier replay in the same process
+        }
+    }
+
+    /**
+     * Blocks until the whole recording was fed into the graph.
+     */
+    public void awaitCompletion() throws InterruptedException {
+        done.await();
+    }
+
+    /**
+     * @return ticks read from the recording so far, dropped ones included
+     */
+    public long getReplayed() {
+        return replayed;
+    }
+
+    public TickRing getTickRing() {
+        return ticks;
+    }
+
+    @Override
+    public BigDecimal getTakerFee() {
+        return takerFee;
+    }
+
+    @Override
+    public CompletableFuture<BitfinexSubmittedOrder> tradeAsync(Market market, BigDecimal amount) {
+        CompletableFuture<BitfinexSubmittedOrder> fill = new CompletableFuture<>();
+        fill.completeExceptionally(new UnsupportedOperationException("Replay doesn't trade"));
+        return fill;
+    }
+
+    @Override
+    public BigDecimal getUSDBalance() {
+        return new BigDecimal(0);
+    }
+
+    @Override
+    public Observable<BigDecimal> getUSDUpdatesStream() {
+        return Observable.never();
+    }
+}
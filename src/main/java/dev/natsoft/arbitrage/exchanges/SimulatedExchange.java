@@ -0,0 +1,245 @@
+package dev.natsoft.arbitrage.exchanges;
+
+import com.github.jnidzwetzki.bitfinex.v2.entity.BitfinexOrderType;
+import com.github.jnidzwetzki.bitfinex.v2.entity.BitfinexSubmittedOrder;
+import com.github.jnidzwetzki.bitfinex.v2.entity.BitfinexSubmittedOrderStatus;
+import com.github.jnidzwetzki.bitfinex.v2.entity.currency.BitfinexCurrencyPair;
+import com.github.jnidzwetzki.bitfinex.v2.exception.BitfinexClientException;
+import dev.natsoft.arbitrage.Constants;
+import dev.natsoft.arbitrage.model.Market;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replayed exchange filling market orders against the current graph rates, with simulated wallets.
+ * <p>
+ * Orders are acknowledged after the configured latency and may fail, get filled only partially
+ * or slip against the quoted price, the taker fee is taken from the received currency like Bitfinex does.
+ * USD wallet updates are published asynchronously after their own latency, as the live wallet events are.
+ * Configured with the {@code -Darbitrage.simulation.*} properties, see {@link #fromSystemProperties()}.
+ */
+public class SimulatedExchange extends ReplayExchange {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SimulatedExchange.class);
+    public static final String PROPERTY = "arbitrage.simulation";
+    private static final BigDecimal ZERO = new BigDecimal(0);
+    private static final int WALLET_SCALE = 8;
+
+    private final Map<String, BigDecimal> wallets;
+    private final Subject<BigDecimal> USDUpdates;
+    private final AtomicLong orderIds;
+    private final AtomicLong clientIds;
+    private Random random;
+    private long ackLatencyMillis;
+    private long walletLatencyMillis;
+    private double slippage;
+    private double partialFillRate;
+    private double minFill;
+    private double errorRate;
+
+    public SimulatedExchange(Path recording, double speed, BigDecimal takerFee, BigDecimal initialUSD) {
+        super(recording, speed, takerFee);
+        this.wallets = new HashMap<>();
+        this.wallets.put("USD", initialUSD);
+        this.USDUpdates = PublishSubject.<BigDecimal>create().toSerialized();
+        this.orderIds = new AtomicLong();
+        this.clientIds = new AtomicLong(System.currentTimeMillis());
+        this.random = new Random(0);
+        this.minFill = 1;
+    }
+
+    public static SimulatedExchange fromSystemProperties() {
+        return new SimulatedExchange(
+                Paths.get(System.getProperty(FILE_PROPERTY)),
+                Double.parseDouble(System.getProperty(SPEED_PROPERTY, "0")),
+                new BigDecimal(System.getProperty(PROPERTY + ".takerFee", "0.00200")),
+                new BigDecimal(System.getProperty(PROPERTY + ".usd", "1000"))
+        )
+                .setSeed(Long.getLong(PROPERTY + ".seed", 0))
+                .setAckLatencyMillis(Long.getLong(PROPERTY + ".ackLatencyMillis", 50))
+                .setWalletLatencyMillis(Long.getLong(PROPERTY + ".walletLatencyMillis", 100))
+                .setSlippage(Double.parseDouble(System.getProperty(PROPERTY + ".slippage", "0.0005")))
+                .setPartialFills(
+                        Double.parseDouble(System.getProperty(PROPERTY + ".partialFillRate", "0.05")),
+                        Double.parseDouble(System.getProperty(PROPERTY + ".minFill", "0.5")))
+                .setErrorRate(Double.parseDouble(System.getProperty(PROPERTY + ".errorRate", "0.01")));
+    }
+
+    public SimulatedExchange setSeed(long seed) {
+        this.random = new Random(seed);
+        return this;
+    }
+
+    public SimulatedExchange setAckLatencyMillis(long ackLatencyMillis) {
+        this.ackLatencyMillis = ackLatencyMillis;
+        return this;
+    }
+
+    public SimulatedExchange setWalletLatencyMillis(long walletLatencyMillis) {
+        this.walletLatencyMillis = walletLatencyMillis;
+        return this;
+    }
+
+    /**
+     * @param slippage maximal relative price deterioration of a fill
+     */
+    public SimulatedExchange setSlippage(double slippage) {
+        this.slippage = slippage;
+        return this;
+    }
+
+    /**
+     * @param partialFillRate probability of an order getting canceled after a partial fill
+     * @param minFill         minimal filled fraction of a partially filled order
+     */
+    public SimulatedExchange setPartialFills(double partialFillRate, double minFill) {
+        this.partialFillRate = partialFillRate;
+        this.minFill = minFill;
+        return this;
+    }
+
+    /**
+     * @param errorRate probability of an order being rejected
+     */
+    public SimulatedExchange setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<BitfinexSubmittedOrder> tradeAsync(Market market, BigDecimal sourceAmount) {
+        LOGGER.info("Trading {}->{}, amount: {}", market.from, market.to, Constants.DF.format(sourceAmount));
+
+        CompletableFuture<BitfinexSubmittedOrder> fill = new CompletableFuture<>();
+        Schedulers.computation().scheduleDirect(() -> {
+            try {
+                fill.complete(fill(market, sourceAmount));
+            } catch (Exception e) {
+                fill.completeExceptionally(e);
+            }
+        }, ackLatencyMillis, TimeUnit.MILLISECONDS);
+        return fill;
+    }
+
+    private BitfinexSubmittedOrder fill(Market market, BigDecimal sourceAmount) {
+
+        double fill;
+        double slip;
+        boolean error;
+        synchronized (this) {
+            error = random.nextDouble() < errorRate;
+            fill = random.nextDouble() < partialFillRate ? minFill + (1 - minFill) * random.nextDouble() : 1;
+            slip = slippage * random.nextDouble();
+        }
+        if (error)
+            throw new BitfinexClientException("Simulated order error");
+
+        BigDecimal price = market.getPrice();
+        boolean sellsBase = sellsBase(market);
+        BigDecimal one = new BigDecimal(1);
+        BigDecimal keptAfterFee = one.subtract(getTakerFee());
+
+        BigDecimal amountAtCreation;
+        BigDecimal baseFilled;
+        BigDecimal executionPrice;
+        BigDecimal spent;
+        BigDecimal received;
+        if (sellsBase) {
+            amountAtCreation = sourceAmount.negate();
+            baseFilled = sourceAmount.multiply(BigDecimal.valueOf(fill));
+            executionPrice = price.multiply(BigDecimal.valueOf(1 - slip));
+            spent = baseFilled;
+            received = baseFilled.multiply(executionPrice).multiply(keptAfterFee);
+        } else {
+            amountAtCreation = sourceAmount.divide(price, 100, RoundingMode.HALF_DOWN);
+            executionPrice = price.multiply(BigDecimal.valueOf(1 + slip));
+            // the slipped price buys less than ordered, the fill is cut down to what the source pays for
+            baseFilled = sourceAmount.multiply(BigDecimal.valueOf(fill)).divide(executionPrice, 100, RoundingMode.DOWN);
+            spent = baseFilled.multiply(executionPrice);
+            received = baseFilled.multiply(keptAfterFee);
+        }
+
+        // wallets keep the 8 decimals Bitfinex settles with
+        spent = spent.setScale(WALLET_SCALE, RoundingMode.DOWN);
+        received = received.setScale(WALLET_SCALE, RoundingMode.DOWN);
+        synchronized (wallets) {
+            BigDecimal available = wallets.getOrDefault(market.from, ZERO);
+            if (available.compareTo(spent) < 0)
+                throw new BitfinexClientException("Invalid order: not enough exchange balance for "
+                        + market.from + ": " + Constants.DF.format(available) + " < " + Constants.DF.format(spent));
+
+            wallets.put(market.from, available.subtract(spent));
+            wallets.merge(market.to, received, BigDecimal::add);
+        }
+
+        BitfinexSubmittedOrder order = new BitfinexSubmittedOrder();
+        order.setOrderId(orderIds.incrementAndGet());
+        order.setClientId(clientIds.incrementAndGet());
+        order.setOrderType(BitfinexOrderType.EXCHANGE_MARKET);
+        order.setCreatedTimestamp(System.currentTimeMillis());
+        order.setAmountAtCreation(amountAtCreation);
+        order.setAmount(amountAtCreation.subtract(sellsBase ? baseFilled.negate() : baseFilled));
+        order.setPriceAverage(executionPrice);
+        BigDecimal filled = baseFilled.divide(amountAtCreation.abs(), 8, RoundingMode.DOWN);
+        if (filled.compareTo(one) < 0) {
+            order.setStatus(BitfinexSubmittedOrderStatus.CANCELED);
+            order.setStatusDescription("Simulated partial fill: " + Constants.DF.format(filled));
+        } else {
+            order.setStatus(BitfinexSubmittedOrderStatus.EXECUTED);
+        }
+        LOGGER.info("Order finished: {}", order);
+
+        if (market.from.equals("USD") || market.to.equals("USD"))
+            publishUSDBalance();
+        return order;
+    }
+
+    /**
+     * Bid edges go from the base currency of a pair, as in {@link Bitfinex#tradeAsync}.
+     * The replay registers the recorded pairs.
+     */
+    private static boolean sellsBase(Market market) {
+        try {
+            BitfinexCurrencyPair.of(market.from, market.to);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void publishUSDBalance() {
+        BigDecimal balance = getUSDBalance();
+        Schedulers.computation().scheduleDirect(() -> USDUpdates.onNext(balance), walletLatencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public BigDecimal getBalance(String currency) {
+        synchronized (wallets) {
+            return wallets.getOrDefault(currency, ZERO);
+        }
+    }
+
+    @Override
+    public BigDecimal getUSDBalance() {
+        return getBalance("USD");
+    }
+
+    @Override
+    public Observable<BigDecimal> getUSDUpdatesStream() {
+        return USDUpdates;
+    }
+}
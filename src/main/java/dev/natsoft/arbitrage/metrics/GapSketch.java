@@ -0,0 +1,141 @@
+package dev.natsoft.arbitrage.metrics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, decaying quantile sketch of the gaps between feed updates, in milliseconds.
+ * <p>
+ * Uses the same log-linear buckets as {@link LatencyHistogram} with 8 sub-buckets per power of two,
+ * so quantiles are within ~12% of the recorded gaps and the sketch is a fixed ~2KB no matter
+ * how long the feed runs. Once the window fills up all counts are halved, older gaps fade out
+ * and the quantiles follow the recent behaviour of the feed.
+ * The 99th percentile is cached and refreshed every few samples, so it can be read on every detection.
+ * Lock-free, the sketch of an exchange is shared by all the ingestion shards. A gap recorded while
+ * the counts get halved may escape the halving, quantiles are approximate anyway.
+ */
+public class GapSketch {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int MAX_MAGNITUDE = 31;
+    private static final int BUCKETS = LINEAR_LIMIT + (MAX_MAGNITUDE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final int REFRESH_EVERY = 16;
+
+    private final int window;
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong samples;
+    private final AtomicLong max;
+    private final AtomicBoolean decaying;
+    private volatile long p99;
+
+    /**
+     * @param window number of gaps after which the counts get halved
+     */
+    public GapSketch(int window) {
+        this.window = window;
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong();
+        this.samples = new AtomicLong();
+        this.max = new AtomicLong();
+        this.decaying = new AtomicBoolean();
+    }
+
+    public GapSketch() {
+        this(1024);
+    }
+
+    public void record(long gapMillis) {
+        if (gapMillis < 0)
+            return;
+
+        counts.incrementAndGet(bucket(gapMillis));
+        long previous = max.get();
+        while (gapMillis > previous && !max.compareAndSet(previous, gapMillis)) {
+            previous = max.get();
+        }
+
+        // a single recording thread halves the counts, the others carry on
+        if (count.incrementAndGet() >= window && decaying.compareAndSet(false, true)) {
+            try {
+                long removed = 0;
+                for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                    long before = counts.getAndUpdate(bucket, c -> c >>> 1);
+                    removed += before - (before >>> 1);
+                }
+                count.addAndGet(-removed);
+            } finally {
+                decaying.set(false);
+            }
+        }
+        if (samples.incrementAndGet() % REFRESH_EVERY == 0)
+            p99 = getPercentile(99);
+    }
+
+    static int bucket(long value) {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+
+        int magnitude = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_MAGNITUDE);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int sub = (int) Math.min(value >>> shift, 2 * SUB_BUCKETS - 1) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (magnitude - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR_LIMIT)
+            return bucket;
+
+        int magnitude = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return ((long) (sub + 1) << shift) - 1;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile of the recent gaps, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total <= 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank)
+                return Math.min(upperBound(bucket), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * @return 99th percentile as of the last refresh, cheap enough for the detection path
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * @return number of gaps recorded since creation, decay doesn't lower it
+     */
+    public long getSamples() {
+        return samples.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return "GapSketch{samples=" + getSamples()
+                + ", p50=" + getPercentile(50)
+                + ", p99=" + getPercentile(99)
+                + ", max=" + getMax() + "ms}";
+    }
+}
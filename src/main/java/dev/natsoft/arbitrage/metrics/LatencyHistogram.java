@@ -0,0 +1,107 @@
+package dev.natsoft.arbitrage.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of nanosecond latencies with HDR-style log-linear buckets.
+ * <p>
+ * Values below 32 get a bucket each, above that every power of two is split into 16 linear
+ * sub-buckets, so percentiles are within ~6% of the recorded values over the whole long range.
+ * Recording is a couple of atomic increments and never allocates.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            return;
+
+        counts.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long previous = max.get();
+        while (nanos > previous && !max.compareAndSet(previous, nanos)) {
+            previous = max.get();
+        }
+    }
+
+    static int bucket(long value) {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (magnitude - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return highest value falling into the bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR_LIMIT)
+            return bucket;
+
+        int magnitude = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return ((long) (sub + 1) << shift) - 1;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank)
+                return Math.min(upperBound(bucket), max.get());
+        }
+        return max.get();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long total = count.get();
+        return total == 0 ? 0 : (double) sum.get() / total;
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.set(bucket, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,41 @@
+package dev.natsoft.arbitrage.metrics;
+
+/**
+ * Stages between a websocket tick and a reported trade, each with its latency histogram.
+ */
+public enum LatencyStage {
+    /**
+     * Tick received by the exchange client until its rates are published to the graph, for every tick
+     */
+    TICK_TO_GRAPH("tick.graph"),
+    /**
+     * Oldest tick of the detection batch until the detection starts, conflation included
+     */
+    TICK_TO_DETECTION("tick.detection"),
+    DETECTION("detection"),
+    DETECTION_TO_DECISION("detection.decision"),
+    DECISION_TO_SUBMIT("decision.submit"),
+    /**
+     * Order submitted until filled, for every leg
+     */
+    LEG_FILL("leg.fill"),
+    FILL_TO_REPORT("fill.report"),
+    TICK_TO_FILL("tick.fill"),
+    TICK_TO_REPORT("tick.report");
+
+    public final String label;
+    private final LatencyHistogram histogram;
+
+    LatencyStage(String label) {
+        this.label = label;
+        this.histogram = new LatencyHistogram();
+    }
+
+    public void record(long nanos) {
+        histogram.record(nanos);
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+}
@@ -0,0 +1,55 @@
+package dev.natsoft.arbitrage.metrics;
+
+/**
+ * Monotonic ({@link System#nanoTime()}) stamps of a single opportunity on its way from the tick to the report.
+ * Each step records the stages it closes, unknown stamps are zero and skip the stages depending on them.
+ */
+public class LatencyTrace {
+    private long tickReceived;
+    private long detectionStarted;
+    private long detectionFinished;
+    private long decided;
+    private long[] legsSubmitted;
+    private long[] legsFilled;
+
+    public void detected(long tickReceived, long detectionStarted, long detectionFinished) {
+        this.tickReceived = tickReceived;
+        this.detectionStarted = detectionStarted;
+        this.detectionFinished = detectionFinished;
+    }
+
+    public void decided() {
+        decided = System.nanoTime();
+        stage(LatencyStage.TICK_TO_DETECTION, tickReceived, detectionStarted);
+        stage(LatencyStage.DETECTION, detectionStarted, detectionFinished);
+        stage(LatencyStage.DETECTION_TO_DECISION, detectionFinished, decided);
+    }
+
+    public synchronized void legSubmitted(int leg, int legs) {
+        if (legsSubmitted == null) {
+            legsSubmitted = new long[legs];
+            legsFilled = new long[legs];
+        }
+        legsSubmitted[leg] = System.nanoTime();
+        if (leg == 0)
+            stage(LatencyStage.DECISION_TO_SUBMIT, decided, legsSubmitted[0]);
+    }
+
+    public synchronized void legFilled(int leg) {
+        legsFilled[leg] = System.nanoTime();
+        stage(LatencyStage.LEG_FILL, legsSubmitted[leg], legsFilled[leg]);
+    }
+
+    public synchronized void reported() {
+        long reported = System.nanoTime();
+        long lastFill = legsFilled == null ? 0 : legsFilled[legsFilled.length - 1];
+        stage(LatencyStage.FILL_TO_REPORT, lastFill, reported);
+        stage(LatencyStage.TICK_TO_FILL, tickReceived, lastFill);
+        stage(LatencyStage.TICK_TO_REPORT, tickReceived, reported);
+    }
+
+    private static void stage(LatencyStage stage, long from, long to) {
+        if (from != 0 && to != 0)
+            stage.record(to - from);
+    }
+}
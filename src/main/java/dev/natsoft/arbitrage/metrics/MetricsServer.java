@@ -0,0 +1,107 @@
+package dev.natsoft.arbitrage.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Plain text metrics on a local HTTP endpoint: per stage latency percentiles in microseconds
+ * and the state of the registered components. Enabled with {@code -Darbitrage.metrics.port}.
+ */
+public class MetricsServer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsServer.class);
+    public static final String PORT_PROPERTY = "arbitrage.metrics.port";
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final HttpServer server;
+    private final Map<String, Supplier<Object>> components;
+
+    public MetricsServer(int port) {
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        components = new LinkedHashMap<>();
+        server.createContext("/metrics", this::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * @return started server or null if no port is configured
+     */
+    public static MetricsServer fromSystemProperties() {
+        Integer port = Integer.getInteger(PORT_PROPERTY);
+        if (port == null)
+            return null;
+
+        MetricsServer server = new MetricsServer(port);
+        server.start();
+        return server;
+    }
+
+    public void start() {
+        server.start();
+        LOGGER.info("Serving metrics on http://localhost:{}/metrics", server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * Adds a line with the current state of a component, as given by the supplier.
+     */
+    public synchronized MetricsServer register(String name, Supplier<Object> state) {
+        components.put(name, state);
+        return this;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = render().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public synchronized String render() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-20s %10s %10s", "stage [us]", "count", "mean"));
+        for (double percentile : PERCENTILES) {
+            out.append(String.format(" %10s", "p" + percentile));
+        }
+        out.append(String.format(" %10s%n", "max"));
+
+        for (LatencyStage stage : LatencyStage.values()) {
+            LatencyHistogram histogram = stage.getHistogram();
+            out.append(String.format("%-20s %10d %10.1f", stage.label, histogram.getCount(), histogram.getMean() / 1000));
+            for (double percentile : PERCENTILES) {
+                out.append(String.format(" %10.1f", histogram.getPercentile(percentile) / 1000.0));
+            }
+            out.append(String.format(" %10.1f%n", histogram.getMax() / 1000.0));
+        }
+
+        if (!components.isEmpty())
+            out.append(System.lineSeparator());
+        components.forEach((name, state) -> out.append(name).append(": ").append(state.get()).append(System.lineSeparator()));
+        return out.toString();
+    }
+}
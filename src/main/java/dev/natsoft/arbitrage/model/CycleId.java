@@ -0,0 +1,65 @@
+package dev.natsoft.arbitrage.model;
+
+import java.util.Arrays;
+
+/**
+ * Rotation invariant identity of a cycle of edges of the {@link dev.natsoft.arbitrage.RateMatrix}.
+ * <p>
+ * The edge ids are rotated to start from the smallest one, so every rotation of the same cycle gets
+ * equal ids with the same precomputed hash. Meant for hashing and lookups instead of the rendered path.
+ */
+public final class CycleId {
+    private final int[] edges;
+    private final int hash;
+
+    private CycleId(int[] edges) {
+        this.edges = edges;
+        this.hash = Arrays.hashCode(edges);
+    }
+
+    /**
+     * @param cycle edge ids in trading order, not modified
+     */
+    public static CycleId of(int[] cycle) {
+        int start = 0;
+        for (int i = 1; i < cycle.length; i++) {
+            if (cycle[i] < cycle[start])
+                start = i;
+        }
+
+        int[] edges = new int[cycle.length];
+        for (int i = 0; i < cycle.length; i++) {
+            edges[i] = cycle[(start + i) % cycle.length];
+        }
+        return new CycleId(edges);
+    }
+
+    public int length() {
+        return edges.length;
+    }
+
+    /**
+     * @return i-th edge of the canonical rotation
+     */
+    public int edge(int i) {
+        return edges[i];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CycleId)) return false;
+        CycleId other = (CycleId) o;
+        return hash == other.hash && Arrays.equals(edges, other.edges);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "CycleId" + Arrays.toString(edges);
+    }
+}
@@ -1,7 +1,8 @@
 package dev.natsoft.arbitrage.model;
 
+import dev.natsoft.arbitrage.RateMatrix;
 import dev.natsoft.arbitrage.exchanges.Exchange;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import dev.natsoft.arbitrage.metrics.GapSketch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,17 +10,28 @@ import java.math.BigDecimal;
 import java.text.NumberFormat;
 import java.time.Duration;
 import java.time.Instant;
-
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Market between two currencies on an exchange.
+ * <p>
+ * Markets of the graph are bound to their quote in the {@link RateMatrix} and read their state from it,
+ * unbound instances carry their own rate and price.
+ */
 public class Market {
     private static final Logger LOGGER = LoggerFactory.getLogger(Market.class);
-    private static final int FRESHNESS_SECONDS = 60;
+    public static final int FRESHNESS_SECONDS = 60;
     public final String from;
     public final String to;
     public final Exchange exchange;
-    private final DescriptiveStatistics updateTimeStatistics = new DescriptiveStatistics();
+    private final GapSketch updateGaps = new GapSketch();
     private BigDecimal rate;
     private BigDecimal price;
     private Instant lastUpdateTimestamp;
+    private RateMatrix matrix;
+    private int quote = -1;
+    private OrderBook orderBook;
+    private boolean sellsBase;
 
     public Market(String from, String to, Exchange exchange) {
         this.from = from;
@@ -28,7 +40,39 @@ public class Market {
         this.lastUpdateTimestamp = Instant.now();
     }
 
+    /**
+     * Backs this market with the state of the given quote.
+     */
+    public void bind(RateMatrix matrix, int quote) {
+        this.matrix = matrix;
+        this.quote = quote;
+    }
+
+    /**
+     * @return quote id in the rate matrix or -1 if unbound
+     */
+    public int getQuote() {
+        return quote;
+    }
+
+    /**
+     * Prices this market from the given book: bid side when selling its base currency, ask side otherwise.
+     */
+    public void setOrderBook(OrderBook orderBook, boolean sellsBase) {
+        this.orderBook = orderBook;
+        this.sellsBase = sellsBase;
+    }
+
+    /**
+     * @return book of the pair or null if the market is priced from the ticker only
+     */
+    public OrderBook getOrderBook() {
+        return orderBook;
+    }
+
     public Instant getLastUpdateTimestamp() {
+        if (matrix != null)
+            return Instant.ofEpochMilli(matrix.getQuoteUpdatedAt(quote));
         return lastUpdateTimestamp;
     }
 
@@ -36,31 +80,47 @@ public class Market {
         Instant prevUpdate = lastUpdateTimestamp;
         Instant currentUpdate = Instant.now();
         lastUpdateTimestamp = currentUpdate;
-        long secondsSinceLastUpdate = Duration.between(prevUpdate, currentUpdate).getSeconds();
-        if (secondsSinceLastUpdate != 0) {
-            updateTimeStatistics.addValue(secondsSinceLastUpdate);
-        }
-
-        if (secondsSinceLastUpdate > FRESHNESS_SECONDS)
-            LOGGER.warn("Outdated update: {}->{} after {}s. Statistics: 50p,75p,95p: {},{},{}",
-                    from, to, secondsSinceLastUpdate,
-                    updateTimeStatistics.getPercentile(50),
-                    updateTimeStatistics.getPercentile(75),
-                    updateTimeStatistics.getPercentile(95)
+        onUpdate(prevUpdate.toEpochMilli(), currentUpdate.toEpochMilli());
+    }
+
+    /**
+     * Records the time between two updates of this market.
+     */
+    public void onUpdate(long previousMillis, long currentMillis) {
+        long gapMillis = currentMillis - previousMillis;
+        updateGaps.record(gapMillis);
+
+        if (gapMillis > TimeUnit.SECONDS.toMillis(FRESHNESS_SECONDS))
+            LOGGER.warn("Outdated update: {}->{} after {}ms. Gaps 50p,75p,95p: {},{},{}ms",
+                    from, to, gapMillis,
+                    updateGaps.getPercentile(50),
+                    updateGaps.getPercentile(75),
+                    updateGaps.getPercentile(95)
             );
     }
 
+    /**
+     * @return recent gaps between the updates of this market, see {@link dev.natsoft.arbitrage.FeedHealth}
+     */
+    public GapSketch getUpdateGaps() {
+        return updateGaps;
+    }
+
     public BigDecimal getPrice() {
+        if (matrix != null)
+            return BigDecimal.valueOf(matrix.getQuotePrice(quote));
         return price;
     }
 
     public Market setPrice(BigDecimal price) {
-        updateTimestamp();
+        // the rate and the price come together, only setting the rate counts as an update
         this.price = price;
         return this;
     }
 
     public BigDecimal getRate() {
+        if (matrix != null)
+            return BigDecimal.valueOf(matrix.getQuoteRate(quote));
         return rate;
     }
 
@@ -71,8 +131,8 @@ public class Market {
     }
 
     public BigDecimal getRateWithFees() {
-        BigDecimal outRate = rate;
-        if (Duration.between(lastUpdateTimestamp, Instant.now()).getSeconds() > FRESHNESS_SECONDS)
+        BigDecimal outRate = getRate();
+        if (Duration.between(getLastUpdateTimestamp(), Instant.now()).getSeconds() > FRESHNESS_SECONDS)
             outRate = BigDecimal.valueOf(0);
 
         return outRate.multiply(
@@ -80,6 +140,30 @@ public class Market {
                         .subtract(exchange.getTakerFee())); // we will pay the taker fee to place a market order
     }
 
+    /**
+     * Average rate of converting the given amount of {@code from} with a market order, walking the book.
+     * Falls back to the top of book rate if there is no book.
+     *
+     * @return executable rate or zero if the book is too shallow for the amount
+     */
+    public BigDecimal getExecutableRate(BigDecimal amount) {
+        if (orderBook == null)
+            return getRate();
+
+        double rate = sellsBase
+                ? orderBook.sellRate(amount.doubleValue())
+                : orderBook.buyRate(amount.doubleValue());
+        return Double.isNaN(rate) ? BigDecimal.valueOf(0) : BigDecimal.valueOf(rate);
+    }
+
+    public BigDecimal getExecutableRateWithFees(BigDecimal amount) {
+        BigDecimal outRate = getExecutableRate(amount);
+        if (Duration.between(getLastUpdateTimestamp(), Instant.now()).getSeconds() > FRESHNESS_SECONDS)
+            outRate = BigDecimal.valueOf(0);
+
+        return outRate.multiply(new BigDecimal(1).subtract(exchange.getTakerFee()));
+    }
+
     @Override
     public String toString() {
 
@@ -87,7 +171,7 @@ public class Market {
                 "from='" + from + '\'' +
                 ", to='" + to + '\'' +
                 ", exchange='" + exchange + '\'' +
-                ", rate=" + NumberFormat.getCurrencyInstance().format(rate) +
+                ", rate=" + NumberFormat.getCurrencyInstance().format(getRate()) +
                 '}';
     }
 
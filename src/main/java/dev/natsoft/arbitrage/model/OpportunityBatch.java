@@ -0,0 +1,34 @@
+package dev.natsoft.arbitrage.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Most profitable chains of one detection pass, best first, so that the execution side
+ * can fall back to the next one without waiting for another detection.
+ */
+public class OpportunityBatch {
+    public final List<TradeChain> ranked;
+    /**
+     * Version of the rate snapshot the chains were detected in
+     */
+    public final long snapshotVersion;
+
+    public OpportunityBatch(List<TradeChain> ranked, long snapshotVersion) {
+        this.ranked = Collections.unmodifiableList(ranked);
+        this.snapshotVersion = snapshotVersion;
+    }
+
+    public TradeChain best() {
+        return ranked.get(0);
+    }
+
+    public boolean isEmpty() {
+        return ranked.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "OpportunityBatch{chains: " + ranked.size() + ", snapshot: " + snapshotVersion + "}";
+    }
+}
@@ -0,0 +1,217 @@
+package dev.natsoft.arbitrage.model;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Price aggregated (L2) order book of a single pair, limited to a fixed depth per side.
+ * <p>
+ * Levels are kept in primitive arrays sorted from the best price, deltas are applied in place
+ * by shifting the levels behind the changed one, so updates never allocate.
+ * The exchange thread writes under a {@link StampedLock}, readers walk the book optimistically
+ * and retry only if an update got in between.
+ */
+public class OrderBook {
+    private static final int OPTIMISTIC_ATTEMPTS = 8;
+
+    private final StampedLock lock;
+    private final Side bids;
+    private final Side asks;
+
+    public OrderBook(int depth) {
+        this.lock = new StampedLock();
+        this.bids = new Side(depth, true);
+        this.asks = new Side(depth, false);
+    }
+
+    /**
+     * Applies a Bitfinex book entry: a positive count sets the level, zero count removes it,
+     * the sign of the amount tells bids (positive) from asks (negative).
+     */
+    public void update(double price, int count, double amount) {
+        long stamp = lock.writeLock();
+        try {
+            Side side = amount > 0 ? bids : asks;
+            if (count > 0)
+                side.set(price, Math.abs(amount));
+            else
+                side.remove(price);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes all the levels, before applying a snapshot of the book.
+     */
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            bids.count = 0;
+            asks.count = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param baseAmount amount of the base currency sold into the bids
+     * @return average price received or NaN if the book is too shallow
+     */
+    public double sellRate(double baseAmount) {
+        return walk(bids, baseAmount);
+    }
+
+    /**
+     * @param quoteAmount amount of the quote currency spent on the asks
+     * @return base currency received per quote currency unit or NaN if the book is too shallow
+     */
+    public double buyRate(double quoteAmount) {
+        return walk(asks, quoteAmount);
+    }
+
+    private double walk(Side side, double amount) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0)
+                continue;
+
+            double rate = side.averageRate(amount);
+            if (lock.validate(stamp))
+                return rate;
+        }
+
+        long stamp = lock.readLock();
+        try {
+            return side.averageRate(amount);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return best bid or NaN if there are no bids
+     */
+    public double getBestBid() {
+        return best(bids);
+    }
+
+    /**
+     * @return best ask or NaN if there are no asks
+     */
+    public double getBestAsk() {
+        return best(asks);
+    }
+
+    private double best(Side side) {
+        long stamp = lock.readLock();
+        try {
+            return side.count > 0 ? side.prices[0] : Double.NaN;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int getBidLevels() {
+        return bids.count;
+    }
+
+    public int getAskLevels() {
+        return asks.count;
+    }
+
+    @Override
+    public String toString() {
+        return "OrderBook{bid=" + getBestBid() + " (" + getBidLevels() + " levels)"
+                + ", ask=" + getBestAsk() + " (" + getAskLevels() + " levels)}";
+    }
+
+    private static class Side {
+        final double[] prices;
+        final double[] sizes;
+        final boolean descending;
+        int count;
+
+        Side(int depth, boolean descending) {
+            this.prices = new double[depth];
+            this.sizes = new double[depth];
+            this.descending = descending;
+        }
+
+        /**
+         * @return index of the level or -(insertion point + 1), like {@link java.util.Arrays#binarySearch}
+         */
+        int find(double price) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                double level = prices[middle];
+                if (level == price)
+                    return middle;
+                if (descending ? level > price : level < price)
+                    low = middle + 1;
+                else
+                    high = middle - 1;
+            }
+            return -(low + 1);
+        }
+
+        void set(double price, double size) {
+            int index = find(price);
+            if (index >= 0) {
+                sizes[index] = size;
+                return;
+            }
+
+            index = -index - 1;
+            if (index == prices.length)
+                return; // worse than every level we keep
+
+            int moved = Math.min(count, prices.length - 1) - index;
+            if (moved > 0) {
+                System.arraycopy(prices, index, prices, index + 1, moved);
+                System.arraycopy(sizes, index, sizes, index + 1, moved);
+            }
+            prices[index] = price;
+            sizes[index] = size;
+            if (count < prices.length)
+                count++;
+        }
+
+        void remove(double price) {
+            int index = find(price);
+            if (index < 0)
+                return;
+
+            int moved = count - index - 1;
+            if (moved > 0) {
+                System.arraycopy(prices, index + 1, prices, index, moved);
+                System.arraycopy(sizes, index + 1, sizes, index, moved);
+            }
+            count--;
+        }
+
+        /**
+         * Bids are walked in the base currency, asks in the quote currency.
+         */
+        double averageRate(double amount) {
+            double left = amount;
+            double received = 0;
+            int levels = Math.min(count, prices.length);
+            for (int i = 0; i < levels && left > 0; i++) {
+                double price = prices[i];
+                if (descending) {
+                    double sold = Math.min(left, sizes[i]);
+                    received += sold * price;
+                    left -= sold;
+                } else {
+                    double spent = Math.min(left, sizes[i] * price);
+                    received += spent / price;
+                    left -= spent;
+                }
+            }
+            // tolerate the rounding left over from subtracting the levels
+            return amount <= 0 || left > amount * 1e-9 ? Double.NaN : received / amount;
+        }
+    }
+}
@@ -1,18 +1,96 @@
 package dev.natsoft.arbitrage.model;
 
+import dev.natsoft.arbitrage.RateMatrix;
+import dev.natsoft.arbitrage.metrics.LatencyTrace;
 import org.jgrapht.GraphPath;
+import org.jgrapht.graph.GraphWalk;
 
 import java.math.BigDecimal;
-import java.util.Arrays;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Cycle of trades detected in the {@link RateMatrix}, along with the edges it was detected on.
+ * <p>
+ * The path is never modified, {@link #startingFrom(String)} returns a rotated copy sharing the
+ * {@link CycleId}, the trace and the memoized profitability. The profitability is recomputed only once
+ * a write to one of the edges bumped their versions or one of the rates got outdated,
+ * the rendered path is built once, when first logged.
+ */
 public class TradeChain {
     public static final BigDecimal PROFITABILITY_THRESHOLD = new BigDecimal("1.001");
+    // getRateWithFees drops rates once whole seconds since the update exceed the freshness
+    private static final long STALE_AFTER_MILLIS = TimeUnit.SECONDS.toMillis(Market.FRESHNESS_SECONDS + 1);
     public final GraphPath<String, Market> path;
-    private BigDecimal profitability;
+    /**
+     * Version of the rate snapshot the chain was detected in
+     */
+    public final long snapshotVersion;
+    private final RateMatrix matrix;
+    private final int[] edges;
+    private final CycleId cycleId;
+    private final LatencyTrace trace;
+    private volatile Profitability profitability;
+    private volatile String illustratedPath;
+
+    /**
+     * @param edges edge ids of the markets of the path, in the same order
+     */
+    public TradeChain(GraphPath<String, Market> path, long snapshotVersion, RateMatrix matrix, int[] edges) {
+        this(path, snapshotVersion, matrix, edges, CycleId.of(edges), new LatencyTrace(), null);
+    }
 
-    public TradeChain(GraphPath<String, Market> path) {
+    private TradeChain(GraphPath<String, Market> path, long snapshotVersion, RateMatrix matrix, int[] edges,
+                       CycleId cycleId, LatencyTrace trace, Profitability profitability) {
         this.path = path;
+        this.snapshotVersion = snapshotVersion;
+        this.matrix = matrix;
+        this.edges = edges;
+        this.cycleId = cycleId;
+        this.trace = trace;
+        this.profitability = profitability;
+    }
+
+    public LatencyTrace getTrace() {
+        return trace;
+    }
+
+    public CycleId getCycleId() {
+        return cycleId;
+    }
+
+    public boolean passesThrough(String currency) {
+        for (Market market : path.getEdgeList()) {
+            if (market.from.equals(currency))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return this chain if it already starts from the currency or doesn't pass through it, a rotated copy otherwise
+     */
+    public TradeChain startingFrom(String currency) {
+        List<Market> markets = path.getEdgeList();
+        int start = -1;
+        for (int i = 0; i < markets.size() && start < 0; i++) {
+            if (markets.get(i).from.equals(currency))
+                start = i;
+        }
+        if (start <= 0)
+            return this;
+
+        List<Market> rotated = new ArrayList<>(markets.size());
+        int[] rotatedEdges = new int[edges.length];
+        for (int i = 0; i < markets.size(); i++) {
+            rotated.add(markets.get((start + i) % markets.size()));
+            rotatedEdges[i] = edges[(start + i) % edges.length];
+        }
+        GraphPath<String, Market> rotatedPath = new GraphWalk<>(path.getGraph(), currency, currency, rotated, path.getWeight());
+        return new TradeChain(rotatedPath, snapshotVersion, matrix, rotatedEdges, cycleId, trace, profitability);
     }
 
     public boolean meetsThreshold() {
@@ -25,31 +103,71 @@ public class TradeChain {
      * @return final profitability after fees as a multiplier (eg. 1.001)
      */
     public BigDecimal getProfitability() {
-//        if (profitability == null) {
-        profitability = path.getEdgeList()
-                .stream()
-                .map(Market::getRateWithFees)
-                .reduce(BigDecimal::multiply)
-                .orElse(new BigDecimal(0));
-//        }
-        return profitability;
+        long versions = matrix.sumEdgeVersions(edges);
+        long now = System.currentTimeMillis();
+        Profitability memo = profitability;
+        if (memo != null && memo.versions == versions && now < memo.validUntil)
+            return memo.value;
+
+        BigDecimal value = new BigDecimal(1);
+        long validUntil = Long.MAX_VALUE;
+        for (Market market : path.getEdgeList()) {
+            value = value.multiply(market.getRateWithFees());
+            long staleAt = market.getLastUpdateTimestamp().toEpochMilli() + STALE_AFTER_MILLIS;
+            if (now < staleAt)
+                validUntil = Math.min(validUntil, staleAt);
+        }
+        profitability = new Profitability(versions, validUntil, value);
+        return value;
     }
 
+    /**
+     * Walks the chain with the given starting amount, pricing every leg from the order books where available.
+     *
+     * @return profitability after fees and slippage as a multiplier (eg. 1.001)
+     */
+    public BigDecimal getExecutableProfitability(BigDecimal startAmount) {
+        BigDecimal amount = startAmount;
+        for (Market market : path.getEdgeList()) {
+            amount = amount.multiply(market.getExecutableRateWithFees(amount));
+            if (amount.signum() == 0)
+                return amount;
+        }
+        return amount.divide(startAmount, 100, RoundingMode.HALF_DOWN);
+    }
 
     @Override
     public String toString() {
-        return "TradeChain{profit: " + this.getProfitability() + ", path:" + this.path + "}";
+        return "TradeChain{profit: " + this.getProfitability() + ", snapshot: " + snapshotVersion + ", path:" + this.path + "}";
     }
 
     public String ilustratePath() {
-        Object[] instruments = path.getEdgeList()
-                .stream()
-                .map(edge -> String.format("[%s,%s]", edge.from, edge.to))
-                .toArray();
-
-        return String.format("{Trades: number: %s, instruments: %s}",
-                path.getLength(),
-                Arrays.toString(instruments)
-        );
+        String illustrated = illustratedPath;
+        if (illustrated == null) {
+            List<Market> markets = path.getEdgeList();
+            StringBuilder out = new StringBuilder("{Trades: number: ")
+                    .append(path.getLength())
+                    .append(", instruments: [");
+            for (int i = 0; i < markets.size(); i++) {
+                if (i > 0)
+                    out.append(", ");
+                out.append('[').append(markets.get(i).from).append(',').append(markets.get(i).to).append(']');
+            }
+            illustrated = out.append("]}").toString();
+            illustratedPath = illustrated;
+        }
+        return illustrated;
+    }
+
+    private static final class Profitability {
+        final long versions;
+        final long validUntil;
+        final BigDecimal value;
+
+        Profitability(long versions, long validUntil, BigDecimal value) {
+            this.versions = versions;
+            this.validUntil = validUntil;
+            this.value = value;
+        }
     }
 }
@@ -0,0 +1,18 @@
+package dev.natsoft.arbitrage.replay;
+
+/**
+ * Tick read from a recording, reused by {@link TickReader} for every record.
+ */
+public class RecordedTick {
+    public long timestamp;
+    public int symbolId;
+    public double bid;
+    public double ask;
+    public double volume;
+
+    @Override
+    public String toString() {
+        return "RecordedTick{timestamp=" + timestamp + ", symbolId=" + symbolId
+                + ", bid=" + bid + ", ask=" + ask + ", volume=" + volume + "}";
+    }
+}
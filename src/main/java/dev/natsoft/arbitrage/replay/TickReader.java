@@ -0,0 +1,103 @@
+package dev.natsoft.arbitrage.replay;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static dev.natsoft.arbitrage.replay.TickRecorder.*;
+
+/**
+ * Sequential reader of a {@link TickRecorder} log.
+ */
+public class TickReader implements Closeable {
+    private final FileChannel channel;
+    private final long size;
+    private final List<String> from;
+    private final List<String> to;
+    private MappedByteBuffer segment;
+    private long segmentStart;
+
+    public TickReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.from = new ArrayList<>();
+        this.to = new ArrayList<>();
+        map(0);
+
+        if (segment.remaining() < 8 || segment.getInt() != MAGIC)
+            throw new IOException("Not a tick recording: " + file);
+        int version = segment.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported tick recording version " + version + ": " + file);
+    }
+
+    private void map(long start) throws IOException {
+        segmentStart = start;
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+    }
+
+    /**
+     * Reads up to the next tick, registering the symbols defined on the way.
+     *
+     * @return false at the end of the recording
+     */
+    public boolean next(RecordedTick tick) throws IOException {
+        while (segment.hasRemaining()) {
+            byte type = segment.get();
+            switch (type) {
+                case TICK:
+                    tick.timestamp = segment.getLong();
+                    tick.symbolId = segment.getInt();
+                    tick.bid = segment.getDouble();
+                    tick.ask = segment.getDouble();
+                    tick.volume = segment.getDouble();
+                    return true;
+                case SYMBOL:
+                    int id = segment.getInt();
+                    from.add(id, readString());
+                    to.add(id, readString());
+                    break;
+                case NEXT_SEGMENT:
+                    if (segmentStart + SEGMENT_SIZE >= size)
+                        return false;
+                    map(segmentStart + SEGMENT_SIZE);
+                    break;
+                case END:
+                    return false;
+                default:
+                    throw new IOException("Corrupted tick recording, unknown record type " + type
+                            + " at " + (segmentStart + segment.position() - 1));
+            }
+        }
+        return false;
+    }
+
+    private String readString() {
+        byte[] bytes = new byte[segment.getShort()];
+        segment.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int getSymbolCount() {
+        return from.size();
+    }
+
+    public String getFrom(int symbolId) {
+        return from.get(symbolId);
+    }
+
+    public String getTo(int symbolId) {
+        return to.get(symbolId);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,110 @@
+package dev.natsoft.arbitrage.replay;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Appends raw ticks to a memory mapped binary log, read back by {@link TickReader}.
+ * <p>
+ * The log starts with a magic number and a format version, followed by records tagged with a type byte:
+ * symbol definitions (id, from and to currency) written once per symbol, and ticks (timestamp,
+ * symbol id, bid, ask and volume). The file is mapped in fixed size segments, a record never spans two
+ * of them. On close the file is truncated to the written length, after a crash the zeroed tail reads as the end.
+ */
+public class TickRecorder implements Closeable {
+    static final int MAGIC = 0x5449434B; // TICK
+    static final int VERSION = 1;
+    static final byte END = 0;
+    static final byte SYMBOL = 1;
+    static final byte TICK = 2;
+    static final byte NEXT_SEGMENT = 3;
+    static final int SEGMENT_SIZE = 64 << 20;
+    static final int TICK_SIZE = 1 + 8 + 4 + 3 * 8;
+
+    private final FileChannel channel;
+    private final Map<String, Integer> symbolIds;
+    private MappedByteBuffer segment;
+    private long segmentStart;
+
+    public TickRecorder(Path file) throws IOException {
+        this.channel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        this.symbolIds = new HashMap<>();
+        map(0);
+        segment.putInt(MAGIC).putInt(VERSION);
+    }
+
+    private void map(long start) throws IOException {
+        segmentStart = start;
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, start, SEGMENT_SIZE);
+    }
+
+    /**
+     * Moves to the next segment unless the record fits, keeping a byte for the end or next segment marker.
+     */
+    private void ensureRemaining(int size) throws IOException {
+        if (segment.remaining() > size)
+            return;
+
+        segment.put(NEXT_SEGMENT);
+        segment.force();
+        map(segmentStart + SEGMENT_SIZE);
+    }
+
+    /**
+     * @return id of the symbol to record its ticks with
+     */
+    public synchronized int register(String from, String to) {
+        String symbol = from + ":" + to;
+        Integer id = symbolIds.get(symbol);
+        if (id != null)
+            return id;
+
+        byte[] fromBytes = from.getBytes(StandardCharsets.UTF_8);
+        byte[] toBytes = to.getBytes(StandardCharsets.UTF_8);
+        try {
+            ensureRemaining(1 + 4 + 2 + fromBytes.length + 2 + toBytes.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        id = symbolIds.size();
+        segment.put(SYMBOL)
+                .putInt(id)
+                .putShort((short) fromBytes.length).put(fromBytes)
+                .putShort((short) toBytes.length).put(toBytes);
+        symbolIds.put(symbol, id);
+        return id;
+    }
+
+    public synchronized void record(int symbolId, long timestamp, double bid, double ask, double volume) {
+        try {
+            ensureRemaining(TICK_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        segment.put(TICK)
+                .putLong(timestamp)
+                .putInt(symbolId)
+                .putDouble(bid)
+                .putDouble(ask)
+                .putDouble(volume);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        segment.put(END);
+        segment.force();
+        channel.truncate(segmentStart + segment.position());
+        channel.close();
+    }
+}
@@ -0,0 +1,33 @@
+package dev.natsoft.arbitrage.ring;
+
+import dev.natsoft.arbitrage.TickerHandle;
+
+/**
+ * Slot of the {@link TickRing}, preallocated and overwritten in place by every tick published into it.
+ * Handlers must copy whatever they need to keep, the slot is reused once the ring wraps around.
+ */
+public class TickEvent {
+    /**
+     * Ticker of the graph or null if the tick didn't meet the thresholds and is only recorded
+     */
+    public TickerHandle ticker;
+    /**
+     * Id of the symbol in the tick recording
+     */
+    public int recordedId;
+    public double bid;
+    public double ask;
+    public double volume;
+    /**
+     * Wall clock time of the tick, for the recording
+     */
+    public long timestamp;
+    /**
+     * Monotonic receipt time of the tick, see {@link System#nanoTime()}
+     */
+    public long receivedNanos;
+    /**
+     * Sequence of the tick in the slot, written last by the producer
+     */
+    volatile long published = -1;
+}
@@ -0,0 +1,9 @@
+package dev.natsoft.arbitrage.ring;
+
+/**
+ * Consumer of the ticks of a {@link TickRing}, called on the thread of its cursor in sequence order.
+ */
+@FunctionalInterface
+public interface TickHandler {
+    void onTick(TickEvent event, long sequence) throws Exception;
+}
@@ -0,0 +1,46 @@
+package dev.natsoft.arbitrage.ring;
+
+import dev.natsoft.arbitrage.TickerHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs how many ticks of how many tickers were published per interval, meant to run on a non gating cursor.
+ * Logged once the first tick after the interval arrives, quiet feeds stay quiet.
+ */
+public class TickRateLogger implements TickHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TickRateLogger.class);
+
+    private final long intervalNanos;
+    private final Set<TickerHandle> tickers;
+    private long intervalStart;
+    private long ticks;
+
+    public TickRateLogger(long interval, TimeUnit unit) {
+        this.intervalNanos = unit.toNanos(interval);
+        this.tickers = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.intervalStart = System.nanoTime();
+    }
+
+    @Override
+    public void onTick(TickEvent event, long sequence) {
+        if (event.ticker == null)
+            return;
+
+        long now = System.nanoTime();
+        if (now - intervalStart >= intervalNanos) {
+            LOGGER.info("In last {}s got {} ticker updates of {} tickers",
+                    TimeUnit.NANOSECONDS.toSeconds(intervalNanos), ticks, tickers.size());
+            intervalStart = now;
+            ticks = 0;
+            tickers.clear();
+        }
+        ticks++;
+        tickers.add(event.ticker);
+    }
+}
@@ -0,0 +1,307 @@
+package dev.natsoft.arbitrage.ring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Ring of preallocated {@link TickEvent}s carrying the ticks of a feed to independent handlers.
+ * <p>
+ * The feed claims a slot with {@link #next()}, fills it in place and {@link #publish(long) publishes} it,
+ * so ticks never allocate. Every handler runs on its own thread with its own cursor and may wait for other
+ * cursors to pass a tick before handling it. Gating handlers hold the producer off when the ring is full,
+ * so no tick is lost, the times it had to wait are counted. Handlers that don't gate, like logging, never
+ * slow the feed down: when lapped they skip to the oldest tick still in the ring and count the overrun.
+ * Claims are atomic so the callbacks of a pooled connection may publish concurrently.
+ * Configured with {@code -Darbitrage.ring.capacity} (a power of two) and {@code -Darbitrage.ring.wait},
+ * see {@link WaitStrategy}.
+ */
+public class TickRing {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TickRing.class);
+    public static final String CAPACITY_PROPERTY = "arbitrage.ring.capacity";
+    public static final String WAIT_PROPERTY = "arbitrage.ring.wait";
+
+    private final TickEvent[] events;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final AtomicLong claimed;
+    private final AtomicLong producerWaits;
+    private final List<Cursor> cursors;
+    private final Signal published;
+    private final Signal progressed;
+    private volatile Cursor[] gating;
+    private volatile long gatingCache;
+    private boolean started;
+
+    public TickRing(int capacity, WaitStrategy waitStrategy) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+
+        this.events = new TickEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new TickEvent();
+        }
+        this.mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+        this.claimed = new AtomicLong(-1);
+        this.producerWaits = new AtomicLong();
+        this.cursors = new ArrayList<>();
+        this.published = new Signal();
+        this.progressed = new Signal();
+        this.gating = new Cursor[0];
+        this.gatingCache = -1;
+    }
+
+    public static TickRing fromSystemProperties() {
+        return new TickRing(
+                Integer.getInteger(CAPACITY_PROPERTY, 8192),
+                WaitStrategy.valueOf(System.getProperty(WAIT_PROPERTY, WaitStrategy.BLOCKING.name()).toUpperCase())
+        );
+    }
+
+    /**
+     * Adds a handler, all of them must be added before the ring starts.
+     *
+     * @param gating   true if the producer has to wait for the handler rather than overrun it
+     * @param upstream cursors that have to pass a tick before the handler gets it
+     */
+    public synchronized Cursor addHandler(String name, TickHandler handler, boolean gating, Cursor... upstream) {
+        if (started)
+            throw new IllegalStateException("Handler " + name + " added to a running ring");
+
+        Cursor cursor = new Cursor(name, handler, gating, upstream);
+        cursors.add(cursor);
+        return cursor;
+    }
+
+    /**
+     * Starts a thread per handler, ticks published before are handled as well. Does nothing if already started.
+     */
+    public synchronized void start() {
+        if (started)
+            return;
+
+        started = true;
+        gating = cursors.stream().filter(cursor -> cursor.gating).toArray(Cursor[]::new);
+        for (Cursor cursor : cursors) {
+            cursor.signalsProgress |= cursor.gating;
+            for (Cursor upstream : cursor.upstream) {
+                upstream.signalsProgress = true;
+            }
+        }
+        for (Cursor cursor : cursors) {
+            Thread thread = new Thread(cursor::run, "ring-" + cursor.name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        LOGGER.info("Started tick ring of {} slots with {} handlers, waiting by {}", events.length, cursors.size(), waitStrategy);
+    }
+
+    /**
+     * Claims the next slot, waiting while it's still held by a gating handler.
+     * The claimed slot must be published, or the handlers stall at it.
+     *
+     * @return sequence of the claimed slot
+     */
+    public long next() {
+        long sequence = claimed.incrementAndGet();
+        long wrapPoint = sequence - events.length;
+        if (wrapPoint > gatingCache) {
+            long min = minGatingSequence(sequence);
+            if (wrapPoint > min) {
+                producerWaits.incrementAndGet();
+                BooleanSupplier freed = () -> wrapPoint <= minGatingSequence(sequence);
+                int attempt = 0;
+                while (wrapPoint > (min = minGatingSequence(sequence))) {
+                    waitStrategy.idle(++attempt, progressed, freed);
+                }
+            }
+            gatingCache = min;
+        }
+        return sequence;
+    }
+
+    public TickEvent get(long sequence) {
+        return events[(int) sequence & mask];
+    }
+
+    /**
+     * Hands the filled slot over to the handlers.
+     */
+    public void publish(long sequence) {
+        events[(int) sequence & mask].published = sequence;
+        published.signal();
+    }
+
+    private long minGatingSequence(long max) {
+        long min = max;
+        for (Cursor cursor : gating) {
+            min = Math.min(min, cursor.sequence);
+        }
+        return min;
+    }
+
+    /**
+     * @return sequence of the last claimed slot
+     */
+    public long getCursor() {
+        return claimed.get();
+    }
+
+    /**
+     * @return claims that had to wait for a gating handler to free the slot
+     */
+    public long getProducerWaits() {
+        return producerWaits.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder out = new StringBuilder("TickRing{wait=").append(waitStrategy)
+                .append(", capacity=").append(events.length)
+                .append(", published=").append(getCursor() + 1)
+                .append(", producerWaits=").append(getProducerWaits());
+        for (Cursor cursor : cursors) {
+            out.append(", ").append(cursor.name)
+                    .append("=[lag=").append(cursor.getLag())
+                    .append(", overruns=").append(cursor.getOverruns()).append(']');
+        }
+        return out.append('}').toString();
+    }
+
+    /**
+     * Position of a handler in the ring.
+     */
+    public final class Cursor {
+        private final String name;
+        private final TickHandler handler;
+        private final boolean gating;
+        private final Cursor[] upstream;
+        private final AtomicLong overruns;
+        /**
+         * Waits for ticks to be published, or for its upstream cursors to pass them
+         */
+        private final Signal waitsOn;
+        /**
+         * True if the producer or another handler waits for the cursor, set on start
+         */
+        private boolean signalsProgress;
+        /**
+         * Last handled sequence
+         */
+        private volatile long sequence = -1;
+        /**
+         * Sequence waited for, owned by the thread of the cursor
+         */
+        private long next;
+
+        private Cursor(String name, TickHandler handler, boolean gating, Cursor[] upstream) {
+            this.name = name;
+            this.handler = handler;
+            this.gating = gating;
+            this.upstream = upstream;
+            this.overruns = new AtomicLong();
+            this.waitsOn = upstream.length == 0 ? published : progressed;
+        }
+
+        private void run() {
+            BooleanSupplier available = this::available;
+            next = sequence + 1;
+            int attempt = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                if (!available()) {
+                    waitStrategy.idle(++attempt, waitsOn, available);
+                    continue;
+                }
+                attempt = 0;
+
+                TickEvent event = events[(int) next & mask];
+                long published = event.published;
+                if (published > next) {
+                    // lapped by the producer, only handlers not gating it can be
+                    overruns.addAndGet(published - next);
+                    next = published;
+                    continue;
+                }
+
+                try {
+                    handler.onTick(event, next);
+                } catch (Exception e) {
+                    LOGGER.error("Tick handler {} failed at {}", name, next, e);
+                }
+                sequence = next++;
+                if (signalsProgress)
+                    progressed.signal();
+            }
+        }
+
+        private boolean available() {
+            if (events[(int) next & mask].published < next)
+                return false;
+
+            for (Cursor cursor : upstream) {
+                if (cursor.sequence < next)
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return ticks claimed but not handled yet
+         */
+        public long getLag() {
+            return Math.max(0, claimed.get() - sequence);
+        }
+
+        /**
+         * @return ticks skipped because the producer lapped the handler
+         */
+        public long getOverruns() {
+            return overruns.get();
+        }
+    }
+
+    /**
+     * What threads blocked by {@link WaitStrategy#BLOCKING} wait on: handlers without upstream cursors
+     * on ticks being published, the producer and the other handlers on the cursors they wait for moving on.
+     * Waiters register before checking readiness, so signalling is free while no one waits and no signal is missed.
+     */
+    static final class Signal {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition condition = lock.newCondition();
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        void await(BooleanSupplier ready) {
+            lock.lock();
+            waiters.incrementAndGet();
+            try {
+                while (!ready.getAsBoolean())
+                    condition.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                waiters.decrementAndGet();
+                lock.unlock();
+            }
+        }
+
+        void signal() {
+            if (waiters.get() == 0)
+                return;
+
+            lock.lock();
+            try {
+                condition.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
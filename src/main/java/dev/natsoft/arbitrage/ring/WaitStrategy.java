@@ -0,0 +1,53 @@
+package dev.natsoft.arbitrage.ring;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * How handlers of the {@link TickRing} wait for the next tick, and the producer for a free slot.
+ * All but busy spinning spin a little first. Busy spinning has the lowest latency but burns a core per handler,
+ * parking backs off exponentially to under a millisecond, blocking sleeps until signalled and suits feeds idle
+ * most of the time, at the cost of a lock whenever a tick is published to a blocked handler.
+ */
+public enum WaitStrategy {
+    BUSY_SPIN {
+        @Override
+        void idle(int attempt, TickRing.Signal signal, BooleanSupplier ready) {
+        }
+    },
+    YIELD {
+        @Override
+        void idle(int attempt, TickRing.Signal signal, BooleanSupplier ready) {
+            if (attempt > SPINS)
+                Thread.yield();
+        }
+    },
+    PARK {
+        @Override
+        void idle(int attempt, TickRing.Signal signal, BooleanSupplier ready) {
+            if (attempt > SPINS)
+                LockSupport.parkNanos(MIN_PARK_NANOS << Math.min(attempt - SPINS - 1, MAX_PARK_SHIFT));
+        }
+    },
+    BLOCKING {
+        @Override
+        void idle(int attempt, TickRing.Signal signal, BooleanSupplier ready) {
+            if (attempt > SPINS)
+                signal.await(ready);
+        }
+    };
+
+    private static final int SPINS = 100;
+    private static final long MIN_PARK_NANOS = 50_000;
+    /**
+     * Parks double up to 50us * 2^4 = 800us
+     */
+    private static final int MAX_PARK_SHIFT = 4;
+
+    /**
+     * @param attempt number of consecutive unsuccessful attempts
+     * @param signal  signalled when the ring moves on, for the strategies that block
+     * @param ready   what is waited for
+     */
+    abstract void idle(int attempt, TickRing.Signal signal, BooleanSupplier ready);
+}
@@ -0,0 +1,90 @@
+package dev.natsoft.arbitrage;
+
+import dev.natsoft.arbitrage.model.Market;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BalanceReservationsTest {
+    private static final BigDecimal AMOUNT = new BigDecimal(30);
+    private static final BigDecimal BALANCE = new BigDecimal(70);
+
+    private final TestExchange exchange = new TestExchange(BALANCE);
+    private final BalanceReservations reservations = new BalanceReservations();
+
+    @Test
+    void reservesFundsAgainstTheBalance() {
+        BalanceReservations.Reservation first = reservations.tryReserve(chain("USD", "BTC", "ETH"), AMOUNT, BALANCE);
+        assertNotNull(first);
+        assertNotNull(reservations.tryReserve(chain("USD", "LTC", "XRP"), AMOUNT, BALANCE));
+        // 10 USD left
+        assertNull(reservations.tryReserve(chain("USD", "EOS", "XLM"), AMOUNT, BALANCE));
+
+        first.release();
+        assertNotNull(reservations.tryReserve(chain("USD", "EOS", "XLM"), AMOUNT, BALANCE));
+    }
+
+    @Test
+    void holdsFundsUntilTheChainCompletes() {
+        List<Market> markets = chain("USD", "BTC", "ETH");
+        BalanceReservations.Reservation reservation = reservations.tryReserve(markets, AMOUNT, new BigDecimal(40));
+        assertNotNull(reservation);
+
+        // the balance drops only with the wallet update, filled legs keep the funds reserved
+        markets.forEach(reservation::legFilled);
+        assertEquals(0, reservations.getReservedMarketCount());
+        assertNull(reservations.tryReserve(chain("USD", "LTC", "XRP"), AMOUNT, new BigDecimal(40)));
+
+        reservation.release();
+        assertNotNull(reservations.tryReserve(chain("USD", "LTC", "XRP"), AMOUNT, new BigDecimal(40)));
+    }
+
+    @Test
+    void takesMarketsExclusively() {
+        List<Market> markets = chain("USD", "BTC", "ETH");
+        BalanceReservations.Reservation reservation = reservations.tryReserve(markets, AMOUNT, BALANCE);
+        assertNotNull(reservation);
+        assertEquals(3, reservations.getReservedMarketCount());
+
+        // both directions of a pair trade the same book
+        assertNull(reservations.tryReserve(chain("USD", "ETH", "LTC"), AMOUNT, BALANCE));
+
+        reservation.legFilled(markets.get(0));
+        reservation.legFilled(markets.get(1));
+        assertNull(reservations.tryReserve(chain("USD", "ETH", "LTC"), AMOUNT, BALANCE));
+        reservation.legFilled(markets.get(2));
+        assertNotNull(reservations.tryReserve(chain("USD", "ETH", "LTC"), AMOUNT, BALANCE));
+    }
+
+    @Test
+    void rejectsChainsTradingAPairTwice() {
+        assertNull(reservations.tryReserve(chain("USD", "BTC", "USD", "BTC"), AMOUNT, BALANCE));
+        assertEquals(0, reservations.getReservedMarketCount());
+    }
+
+    @Test
+    void releasesOnlyOnce() {
+        BalanceReservations.Reservation reservation = reservations.tryReserve(chain("USD", "BTC", "ETH"), AMOUNT, new BigDecimal(60));
+        assertNotNull(reservation);
+        reservation.release();
+        reservation.release();
+
+        assertNotNull(reservations.tryReserve(chain("USD", "LTC", "XRP"), AMOUNT, new BigDecimal(60)));
+        assertNotNull(reservations.tryReserve(chain("USD", "EOS", "XLM"), AMOUNT, new BigDecimal(60)));
+        assertNull(reservations.tryReserve(chain("USD", "TRX", "NEO"), AMOUNT, new BigDecimal(60)));
+    }
+
+    private List<Market> chain(String... currencies) {
+        List<Market> markets = new ArrayList<>();
+        for (int i = 0; i < currencies.length; i++) {
+            markets.add(new Market(currencies[i], currencies[(i + 1) % currencies.length], exchange));
+        }
+        return markets;
+    }
+}
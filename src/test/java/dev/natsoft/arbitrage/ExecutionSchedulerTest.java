@@ -0,0 +1,138 @@
+package dev.natsoft.arbitrage;
+
+import dev.natsoft.arbitrage.model.Market;
+import dev.natsoft.arbitrage.model.TradeChain;
+import org.jgrapht.graph.DefaultDirectedWeightedGraph;
+import org.jgrapht.graph.GraphWalk;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExecutionSchedulerTest {
+    /**
+     * Enough for a single chain at a time
+     */
+    private final TestExchange exchange = new TestExchange(new BigDecimal(40));
+    private final RateMatrix matrix = new RateMatrix(Long.MAX_VALUE);
+    private long version;
+
+    @Test
+    void startsQueuedChainsOnceFundsAreReleased() throws Exception {
+        ExecutionScheduler scheduler = new ExecutionScheduler(4, 16, 10_000, tradeChain -> true);
+        List<SimpleMarketTradeExecutor> executed = new ArrayList<>();
+        scheduler.getExecutions().subscribe(executed::add);
+
+        TradeChain first = chain("USD", "BTC", "ETH");
+        assertEquals(ExecutionScheduler.Submission.STARTED, scheduler.submit(first));
+        assertEquals(ExecutionScheduler.Submission.QUEUED, scheduler.submit(chain("USD", "LTC", "XRP")));
+        assertEquals(1, scheduler.getRunning());
+        assertEquals(1, scheduler.getQueued());
+
+        for (String to : new String[]{"BTC", "ETH", "USD"}) {
+            TestExchange.Order order = exchange.nextOrder();
+            assertEquals(to, order.market.to);
+            order.fill();
+        }
+
+        TestExchange.Order next = exchange.nextOrder();
+        assertEquals("USD", next.market.from);
+        assertEquals("LTC", next.market.to);
+        awaitTrue(() -> executed.size() == 1);
+        assertEquals(first, executed.get(0).tradeChain);
+        assertEquals(0, scheduler.getQueued());
+        assertEquals(1, scheduler.getRunning());
+        assertEquals(2, scheduler.getStarted());
+    }
+
+    @Test
+    void limitsConcurrentChains() throws Exception {
+        exchange.usdBalance = new BigDecimal(1000);
+        ExecutionScheduler scheduler = new ExecutionScheduler(1, 16, 10_000, tradeChain -> true);
+
+        assertEquals(ExecutionScheduler.Submission.STARTED, scheduler.submit(chain("USD", "BTC", "ETH")));
+        assertEquals(ExecutionScheduler.Submission.QUEUED, scheduler.submit(chain("USD", "LTC", "XRP")));
+
+        exchange.nextOrder().fill.completeExceptionally(new IllegalStateException("Order rejected"));
+        assertEquals("LTC", exchange.nextOrder().market.to);
+        assertEquals(1, scheduler.getRunning());
+    }
+
+    @Test
+    void rejectsOnlyNewCyclesWhenTheQueueIsFull() {
+        ExecutionScheduler scheduler = new ExecutionScheduler(4, 1, 10_000, tradeChain -> true);
+
+        assertEquals(ExecutionScheduler.Submission.STARTED, scheduler.submit(chain("USD", "BTC", "ETH")));
+        assertEquals(ExecutionScheduler.Submission.QUEUED, scheduler.submit(chain("USD", "LTC", "XRP")));
+        assertEquals(ExecutionScheduler.Submission.REJECTED, scheduler.submit(chain("USD", "EOS", "XLM")));
+        // a newer detection replaces the queued one
+        assertEquals(ExecutionScheduler.Submission.QUEUED, scheduler.submit(chain("USD", "LTC", "XRP")));
+
+        assertEquals(1, scheduler.getQueued());
+        assertEquals(1, scheduler.getRejected());
+    }
+
+    @Test
+    void dropsQueuedChainsNoLongerWorthIt() throws Exception {
+        ExecutionScheduler scheduler = new ExecutionScheduler(4, 16, 10_000, tradeChain -> false);
+
+        assertEquals(ExecutionScheduler.Submission.STARTED, scheduler.submit(chain("USD", "BTC", "ETH")));
+        assertEquals(ExecutionScheduler.Submission.QUEUED, scheduler.submit(chain("USD", "LTC", "XRP")));
+
+        exchange.nextOrder().fill.completeExceptionally(new IllegalStateException("Order rejected"));
+        awaitTrue(() -> scheduler.getExpired() == 1);
+        assertEquals(0, scheduler.getQueued());
+        assertEquals(0, scheduler.getRunning());
+        assertNull(exchange.orders.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void dropsChainsQueuedForTooLong() throws Exception {
+        ExecutionScheduler scheduler = new ExecutionScheduler(4, 16, 1, tradeChain -> true);
+
+        assertEquals(ExecutionScheduler.Submission.STARTED, scheduler.submit(chain("USD", "BTC", "ETH")));
+        assertEquals(ExecutionScheduler.Submission.QUEUED, scheduler.submit(chain("USD", "LTC", "XRP")));
+        Thread.sleep(5);
+        assertEquals(ExecutionScheduler.Submission.QUEUED, scheduler.submit(chain("USD", "EOS", "XLM")));
+
+        assertEquals(1, scheduler.getExpired());
+        assertEquals(1, scheduler.getQueued());
+    }
+
+    private TradeChain chain(String... currencies) {
+        DefaultDirectedWeightedGraph<String, Market> graph = new DefaultDirectedWeightedGraph<>(Market.class);
+        for (String currency : currencies) {
+            graph.addVertex(currency);
+        }
+
+        List<Market> markets = new ArrayList<>();
+        int[] edges = new int[currencies.length];
+        for (int i = 0; i < currencies.length; i++) {
+            Market market = new Market(currencies[i], currencies[(i + 1) % currencies.length], exchange);
+            int from = matrix.currencyId(market.from);
+            int to = matrix.currencyId(market.to);
+            int quote = matrix.findQuote(from, to, matrix.exchangeId(exchange));
+            if (quote < 0)
+                quote = matrix.addQuote(from, to, matrix.exchangeId(exchange), market);
+            edges[i] = matrix.getQuoteEdge(quote);
+            graph.addEdge(market.from, market.to, market);
+            markets.add(market);
+        }
+        return new TradeChain(new GraphWalk<>(graph, currencies[0], currencies[0], markets, 0), version++, matrix, edges);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+}
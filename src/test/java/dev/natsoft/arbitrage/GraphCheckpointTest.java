@@ -0,0 +1,84 @@
+package dev.natsoft.arbitrage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GraphCheckpointTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsBackWhatWasWritten() throws IOException {
+        GraphCheckpoint checkpoint = new GraphCheckpoint(dir.resolve("graph.checkpoint"), 0, 60_000);
+        GraphCheckpoint.State written = state();
+        checkpoint.write(written);
+
+        GraphCheckpoint.State read = checkpoint.read();
+        assertNotNull(read);
+        assertEquals(written.savedAt, read.savedAt);
+        assertArrayEquals(written.exchanges, read.exchanges);
+        assertArrayEquals(written.currencies, read.currencies);
+        assertEquals(written.quoteCount, read.quoteCount);
+        assertArrayEquals(written.from, read.from);
+        assertArrayEquals(written.to, read.to);
+        assertArrayEquals(written.exchange, read.exchange);
+        assertArrayEquals(written.rates, read.rates);
+        assertArrayEquals(written.prices, read.prices);
+        assertArrayEquals(written.logWeights, read.logWeights);
+        assertArrayEquals(written.updatedAt, read.updatedAt);
+    }
+
+    @Test
+    void ignoresMissingCheckpoint() throws IOException {
+        assertNull(new GraphCheckpoint(dir.resolve("missing"), 0, 60_000).read());
+    }
+
+    @Test
+    void ignoresDamagedCheckpoint() throws IOException {
+        Path file = dir.resolve("graph.checkpoint");
+        GraphCheckpoint checkpoint = new GraphCheckpoint(file, 0, 60_000);
+        checkpoint.write(state());
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+        assertNull(checkpoint.read());
+
+        Files.write(file, new byte[]{1, 2, 3});
+        assertNull(checkpoint.read());
+    }
+
+    @Test
+    void restoresOnlyRecentCheckpoints() {
+        GraphCheckpoint checkpoint = new GraphCheckpoint(dir.resolve("graph.checkpoint"), 0, 60_000);
+        assertTrue(checkpoint.isRecent(1_000, 61_000));
+        assertFalse(checkpoint.isRecent(1_000, 61_001));
+    }
+
+    private static GraphCheckpoint.State state() {
+        GraphCheckpoint.State state = new GraphCheckpoint.State(1_600_000_000_000L,
+                new String[]{"Bitfinex", "Replay"}, new String[]{"USD", "BTC", "ETH"}, 3);
+        int[][] quotes = {{0, 1, 0}, {1, 2, 0}, {2, 0, 1}};
+        for (int quote = 0; quote < quotes.length; quote++) {
+            state.from[quote] = quotes[quote][0];
+            state.to[quote] = quotes[quote][1];
+            state.exchange[quote] = quotes[quote][2];
+            state.rates[quote] = 1.5 + quote;
+            state.prices[quote] = 100.25 * (quote + 1);
+            state.logWeights[quote] = -Math.log(state.rates[quote]);
+            state.updatedAt[quote] = state.savedAt - quote;
+        }
+        return state;
+    }
+}
@@ -0,0 +1,84 @@
+package dev.natsoft.arbitrage;
+
+import com.github.jnidzwetzki.bitfinex.v2.entity.BitfinexSubmittedOrder;
+import com.github.jnidzwetzki.bitfinex.v2.entity.BitfinexSubmittedOrderStatus;
+import dev.natsoft.arbitrage.exchanges.Exchange;
+import dev.natsoft.arbitrage.model.Market;
+import io.reactivex.rxjava3.core.Observable;
+
+import java.math.BigDecimal;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchange whose orders are filled by the test, the USD balance is fixed and published on every subscription.
+ */
+class TestExchange implements Exchange {
+    final BlockingQueue<Order> orders = new LinkedBlockingQueue<>();
+    volatile BigDecimal usdBalance;
+
+    TestExchange(BigDecimal usdBalance) {
+        this.usdBalance = usdBalance;
+    }
+
+    @Override
+    public void startUpdating(RatesKnowledgeGraph ratesKnowledgeGraph) {
+    }
+
+    @Override
+    public BigDecimal getTakerFee() {
+        return BigDecimal.ZERO;
+    }
+
+    @Override
+    public CompletableFuture<BitfinexSubmittedOrder> tradeAsync(Market market, BigDecimal amount) {
+        Order order = new Order(market, amount);
+        orders.add(order);
+        return order.fill;
+    }
+
+    @Override
+    public BigDecimal getUSDBalance() {
+        return usdBalance;
+    }
+
+    @Override
+    public Observable<BigDecimal> getUSDUpdatesStream() {
+        return Observable.fromCallable(this::getUSDBalance).repeat();
+    }
+
+    /**
+     * @return next order placed, failing the test if none comes in time
+     */
+    Order nextOrder() throws InterruptedException {
+        Order order = orders.poll(5, TimeUnit.SECONDS);
+        if (order == null)
+            throw new AssertionError("No order placed");
+        return order;
+    }
+
+    static class Order {
+        final Market market;
+        final BigDecimal amount;
+        final CompletableFuture<BitfinexSubmittedOrder> fill = new CompletableFuture<>();
+
+        Order(Market market, BigDecimal amount) {
+            this.market = market;
+            this.amount = amount;
+        }
+
+        /**
+         * Fills the order at a price of 1.
+         */
+        void fill() {
+            BitfinexSubmittedOrder order = new BitfinexSubmittedOrder();
+            order.setAmountAtCreation(amount);
+            order.setAmount(BigDecimal.ZERO);
+            order.setPriceAverage(BigDecimal.ONE);
+            order.setStatus(BitfinexSubmittedOrderStatus.EXECUTED);
+            fill.complete(order);
+        }
+    }
+}
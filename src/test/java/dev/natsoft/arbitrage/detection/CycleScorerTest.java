@@ -0,0 +1,148 @@
+package dev.natsoft.arbitrage.detection;
+
+import dev.natsoft.arbitrage.RateMatrix;
+import dev.natsoft.arbitrage.RateSnapshot;
+import dev.natsoft.arbitrage.exchanges.ReplayExchange;
+import dev.natsoft.arbitrage.model.Market;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CycleScorerTest {
+    private static final long FRESHNESS_MILLIS = 60_000;
+
+    private RateMatrix matrix;
+    private ReplayExchange exchange;
+    private long now;
+
+    @BeforeEach
+    void setUp() {
+        matrix = new RateMatrix(FRESHNESS_MILLIS);
+        exchange = new ReplayExchange(Paths.get("unused.bin"), 0, BigDecimal.ZERO);
+        now = System.currentTimeMillis();
+    }
+
+    @Test
+    void ranksTheMostProfitableFirst() {
+        List<int[]> cycles = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            // scrambled so that the best ones aren't added in order
+            cycles.add(cycle("C" + i, 1 + ((i * 7) % 20) / 1000.0, now));
+        }
+
+        CycleScorer scorer = new CycleScorer(1, Integer.MAX_VALUE, 5);
+        cycles.forEach(scorer::add);
+        assertEquals(5, scorer.rank(matrix.snapshot(new RateSnapshot()), now, FRESHNESS_MILLIS));
+
+        for (int rank = 0; rank < 5; rank++) {
+            double profit = 1 + (19 - rank) / 1000.0;
+            assertEquals(Math.log(profit), scorer.getRankedProfitLog(rank), 1e-12);
+            int added = indexOfProfit(profit);
+            assertSame(cycles.get(added), scorer.getRanked(rank));
+        }
+    }
+
+    @Test
+    void breaksTiesByTheOrderOfAdding() {
+        int[] first = cycle("A", 1.01, now);
+        int[] second = cycle("B", 1.01, now);
+        int[] third = cycle("C", 1.01, now);
+
+        CycleScorer scorer = new CycleScorer(1, Integer.MAX_VALUE, 2);
+        scorer.add(first);
+        scorer.add(second);
+        scorer.add(third);
+        assertEquals(2, scorer.rank(matrix.snapshot(new RateSnapshot()), now, FRESHNESS_MILLIS));
+        assertSame(first, scorer.getRanked(0));
+        assertSame(second, scorer.getRanked(1));
+    }
+
+    @Test
+    void neverRanksOutdatedCycles() {
+        int[] outdated = cycle("OLD", 1.5, now - FRESHNESS_MILLIS - 1);
+        int[] fresh = cycle("NEW", 1.01, now);
+
+        CycleScorer scorer = new CycleScorer(1, Integer.MAX_VALUE, 8);
+        scorer.add(outdated);
+        scorer.add(fresh);
+        assertSame(fresh, scorer.best(matrix.snapshot(new RateSnapshot()), now, FRESHNESS_MILLIS));
+
+        scorer.add(outdated);
+        assertNull(scorer.best(matrix.snapshot(new RateSnapshot()), now, FRESHNESS_MILLIS));
+    }
+
+    @Test
+    void ranksInParallelLikeSequentially() {
+        List<int[]> cycles = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            cycles.add(cycle("C" + i, 1 + (i % 37) / 1000.0, now));
+        }
+        RateSnapshot snapshot = matrix.snapshot(new RateSnapshot());
+
+        CycleScorer sequential = new CycleScorer(1, Integer.MAX_VALUE, 8);
+        CycleScorer parallel = new CycleScorer(2, 1, 8);
+        // repeated cycles tie, so the order of adding decides across the chunks too
+        for (int repeat = 0; repeat < 10; repeat++) {
+            cycles.forEach(sequential::add);
+            cycles.forEach(parallel::add);
+        }
+
+        assertEquals(8, sequential.rank(snapshot, now, FRESHNESS_MILLIS));
+        assertEquals(8, parallel.rank(snapshot, now, FRESHNESS_MILLIS));
+        for (int rank = 0; rank < 8; rank++) {
+            assertSame(sequential.getRanked(rank), parallel.getRanked(rank));
+            assertEquals(sequential.getRankedProfitLog(rank), parallel.getRankedProfitLog(rank));
+        }
+    }
+
+    @Test
+    void clearsTheCandidatesOnRanking() {
+        CycleScorer scorer = new CycleScorer(1, Integer.MAX_VALUE, 4);
+        scorer.add(cycle("A", 1.01, now));
+        RateSnapshot snapshot = matrix.snapshot(new RateSnapshot());
+        assertEquals(1, scorer.rank(snapshot, now, FRESHNESS_MILLIS));
+        assertEquals(0, scorer.rank(snapshot, now, FRESHNESS_MILLIS));
+    }
+
+    @Test
+    void rejectsEmptyRanking() {
+        assertThrows(IllegalArgumentException.class, () -> new CycleScorer(1, 1, 0));
+    }
+
+    private static int indexOfProfit(double profit) {
+        for (int i = 0; i < 20; i++) {
+            if (1 + ((i * 7) % 20) / 1000.0 == profit)
+                return i;
+        }
+        throw new AssertionError(profit);
+    }
+
+    /**
+     * @return edges of USD to the currency and back, making the given profit
+     */
+    private int[] cycle(String currency, double profit, long updatedAt) {
+        return new int[]{quote("USD", currency, profit, updatedAt), quote(currency, "USD", 1, updatedAt)};
+    }
+
+    private int quote(String from, String to, double rate, long updatedAt) {
+        int quote = matrix.addQuote(matrix.currencyId(from), matrix.currencyId(to), matrix.exchangeId(exchange),
+                new Market(from, to, exchange));
+        int stripe = matrix.getQuoteStripe(quote);
+        long stamp = matrix.beginWrite(stripe);
+        try {
+            matrix.update(quote, rate, rate, -Math.log(rate), updatedAt);
+        } finally {
+            matrix.endWrite(stripe, stamp);
+        }
+        return matrix.getQuoteEdge(quote);
+    }
+}
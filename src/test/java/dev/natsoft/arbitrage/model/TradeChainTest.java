@@ -0,0 +1,119 @@
+package dev.natsoft.arbitrage.model;
+
+import dev.natsoft.arbitrage.RateMatrix;
+import dev.natsoft.arbitrage.exchanges.ReplayExchange;
+import org.jgrapht.graph.DefaultDirectedWeightedGraph;
+import org.jgrapht.graph.GraphWalk;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TradeChainTest {
+    private RateMatrix matrix;
+    /**
+     * Fee lookups, one per leg whenever the profitability is computed, the matrix looks the fee up on updates too
+     */
+    private AtomicInteger computations;
+    private ReplayExchange exchange;
+    private int[] quotes;
+    private TradeChain chain;
+
+    @BeforeEach
+    void setUp() {
+        matrix = new RateMatrix(TimeUnit.SECONDS.toMillis(Market.FRESHNESS_SECONDS));
+        computations = new AtomicInteger();
+        exchange = new ReplayExchange(Paths.get("unused.bin"), 0, BigDecimal.ZERO) {
+            @Override
+            public BigDecimal getTakerFee() {
+                computations.incrementAndGet();
+                return super.getTakerFee();
+            }
+        };
+        quotes = new int[3];
+        chain = chain("USD", "BTC", "ETH");
+    }
+
+    @Test
+    void memoizesWhileTheEdgesAreUnchanged() {
+        long now = System.currentTimeMillis();
+        update(0, 1.01, now);
+        update(1, 1, now);
+        update(2, 1, now);
+        computations.set(0);
+
+        assertEquals(0, new BigDecimal("1.01").compareTo(chain.getProfitability()));
+        assertEquals(3, computations.get());
+        assertEquals(0, new BigDecimal("1.01").compareTo(chain.getProfitability()));
+        assertEquals(3, computations.get());
+
+        // rotated copies share the memo
+        assertEquals(0, new BigDecimal("1.01").compareTo(chain.startingFrom("BTC").getProfitability()));
+        assertEquals(3, computations.get());
+    }
+
+    @Test
+    void recomputesOnceAnEdgeIsWritten() {
+        long now = System.currentTimeMillis();
+        update(0, 1.01, now);
+        update(1, 1, now);
+        update(2, 1, now);
+        assertEquals(0, new BigDecimal("1.01").compareTo(chain.getProfitability()));
+
+        update(1, 1.01, now);
+        computations.set(0);
+        assertEquals(0, new BigDecimal("1.0201").compareTo(chain.getProfitability()));
+        assertEquals(3, computations.get());
+    }
+
+    @Test
+    void recomputesOnceARateGetsOutdated() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        update(0, 1.01, now);
+        update(1, 1, now);
+        // outdated within 200ms, rates count as outdated a second past the freshness
+        update(2, 1, now - TimeUnit.SECONDS.toMillis(Market.FRESHNESS_SECONDS + 1) + 200);
+        assertEquals(0, new BigDecimal("1.01").compareTo(chain.getProfitability()));
+
+        Thread.sleep(300);
+        computations.set(0);
+        assertEquals(0, chain.getProfitability().signum());
+        assertEquals(3, computations.get());
+    }
+
+    private TradeChain chain(String... currencies) {
+        DefaultDirectedWeightedGraph<String, Market> graph = new DefaultDirectedWeightedGraph<>(Market.class);
+        for (String currency : currencies) {
+            graph.addVertex(currency);
+        }
+
+        List<Market> markets = new ArrayList<>();
+        int[] edges = new int[currencies.length];
+        for (int i = 0; i < currencies.length; i++) {
+            Market market = new Market(currencies[i], currencies[(i + 1) % currencies.length], exchange);
+            quotes[i] = matrix.addQuote(matrix.currencyId(market.from), matrix.currencyId(market.to),
+                    matrix.exchangeId(exchange), market);
+            edges[i] = matrix.getQuoteEdge(quotes[i]);
+            graph.addEdge(market.from, market.to, market);
+            markets.add(market);
+        }
+        return new TradeChain(new GraphWalk<>(graph, currencies[0], currencies[0], markets, 0), 0, matrix, edges);
+    }
+
+    private void update(int leg, double rate, long updatedAt) {
+        int stripe = matrix.getQuoteStripe(quotes[leg]);
+        long stamp = matrix.beginWrite(stripe);
+        try {
+            matrix.update(quotes[leg], rate, rate, -Math.log(rate), updatedAt);
+        } finally {
+            matrix.endWrite(stripe, stamp);
+        }
+    }
+}
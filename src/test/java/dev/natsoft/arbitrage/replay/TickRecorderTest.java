@@ -0,0 +1,84 @@
+package dev.natsoft.arbitrage.replay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TickRecorderTest {
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsBackWhatWasRecorded() throws IOException {
+        Path file = dir.resolve("ticks.bin");
+        try (TickRecorder recorder = new TickRecorder(file)) {
+            int btc = recorder.register("BTC", "USD");
+            int eth = recorder.register("ETH", "BTC");
+            assertEquals(btc, recorder.register("BTC", "USD"));
+            recorder.record(btc, 1, 9000.5, 9001, 12);
+            recorder.record(eth, 2, 0.025, 0.0251, 300);
+        }
+
+        try (TickReader reader = new TickReader(file)) {
+            RecordedTick tick = new RecordedTick();
+            assertTrue(reader.next(tick));
+            assertEquals(1, tick.timestamp);
+            assertEquals(9000.5, tick.bid);
+            assertEquals(9001, tick.ask);
+            assertEquals(12, tick.volume);
+            assertEquals("BTC", reader.getFrom(tick.symbolId));
+            assertEquals("USD", reader.getTo(tick.symbolId));
+
+            assertTrue(reader.next(tick));
+            assertEquals(2, tick.timestamp);
+            assertEquals("ETH", reader.getFrom(tick.symbolId));
+            assertEquals(300, tick.volume);
+
+            assertFalse(reader.next(tick));
+            assertEquals(2, reader.getSymbolCount());
+        }
+    }
+
+    @Test
+    void readsAcrossSegmentFilledUpToItsMarker() throws IOException {
+        // names sized so that the ticks leave exactly the byte of the next segment marker in the first segment
+        String from = "AAAAAAAAAAA";
+        String to = "BBBBBBBBBBB";
+        int symbolSize = 1 + Integer.BYTES + 2 * Short.BYTES + from.length() + to.length();
+        int remaining = TickRecorder.SEGMENT_SIZE - HEADER_SIZE - symbolSize - 1;
+        assertEquals(0, remaining % TickRecorder.TICK_SIZE);
+        int inFirstSegment = remaining / TickRecorder.TICK_SIZE;
+
+        Path file = dir.resolve("ticks.bin");
+        int ticks = inFirstSegment + 1000;
+        try (TickRecorder recorder = new TickRecorder(file)) {
+            int id = recorder.register(from, to);
+            for (int i = 0; i < ticks; i++) {
+                recorder.record(id, i, i, i + 1, 1);
+            }
+            // symbols registered later go to the current segment as well
+            int late = recorder.register("LATE", "USD");
+            recorder.record(late, ticks, 1, 2, 3);
+        }
+
+        try (TickReader reader = new TickReader(file)) {
+            RecordedTick tick = new RecordedTick();
+            for (int i = 0; i < ticks; i++) {
+                assertTrue(reader.next(tick), "tick " + i);
+                assertEquals(i, tick.timestamp);
+                assertEquals(i, tick.bid);
+            }
+            assertTrue(reader.next(tick));
+            assertEquals("LATE", reader.getFrom(tick.symbolId));
+            assertFalse(reader.next(tick));
+        }
+    }
+}
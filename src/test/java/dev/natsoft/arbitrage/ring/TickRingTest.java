@@ -0,0 +1,106 @@
+package dev.natsoft.arbitrage.ring;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Busy spinning is left out, it burns a core per handler and crawls on small machines.
+ */
+class TickRingTest {
+    private static final int CAPACITY = 8;
+    private static final int TICKS = 5_000;
+
+    @ParameterizedTest
+    @EnumSource(value = WaitStrategy.class, names = {"YIELD", "PARK", "BLOCKING"})
+    void gatingHandlersSeeEveryTickInOrder(WaitStrategy wait) throws Exception {
+        TickRing ring = new TickRing(CAPACITY, wait);
+        AtomicLong errors = new AtomicLong();
+        AtomicLong first = new AtomicLong(-1);
+        AtomicLong second = new AtomicLong(-1);
+
+        TickRing.Cursor upstream = ring.addHandler("first", (event, sequence) -> {
+            if (sequence != first.get() + 1 || event.volume != sequence)
+                errors.incrementAndGet();
+            first.set(sequence);
+        }, true);
+        ring.addHandler("second", (event, sequence) -> {
+            // waits for the first handler to pass the tick
+            if (sequence != second.get() + 1 || event.volume != sequence || first.get() < sequence)
+                errors.incrementAndGet();
+            second.set(sequence);
+        }, true, upstream);
+        ring.start();
+
+        publish(ring, TICKS);
+        awaitTrue(() -> second.get() == TICKS - 1);
+        assertEquals(0, errors.get());
+        assertEquals(TICKS - 1, first.get());
+        assertEquals(0, upstream.getOverruns());
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = WaitStrategy.class, names = {"YIELD", "PARK", "BLOCKING"})
+    void slowHandlersNotGatingSkipWhatTheyMissed(WaitStrategy wait) throws Exception {
+        TickRing ring = new TickRing(CAPACITY, wait);
+        AtomicLong fast = new AtomicLong(-1);
+        AtomicLong slow = new AtomicLong(-1);
+        AtomicLong handled = new AtomicLong();
+        AtomicLong backwards = new AtomicLong();
+
+        ring.addHandler("fast", (event, sequence) -> fast.set(sequence), true);
+        TickRing.Cursor logger = ring.addHandler("slow", (event, sequence) -> {
+            if (sequence <= slow.get())
+                backwards.incrementAndGet();
+            slow.set(sequence);
+            handled.incrementAndGet();
+            Thread.sleep(1);
+        }, false);
+        ring.start();
+
+        publish(ring, 1_000);
+        awaitTrue(() -> fast.get() == 999 && slow.get() == 999);
+        assertEquals(0, backwards.get());
+        assertTrue(logger.getOverruns() > 0);
+        assertEquals(1_000, handled.get() + logger.getOverruns());
+    }
+
+    @Test
+    void rejectsHandlersOfARunningRing() {
+        TickRing ring = new TickRing(CAPACITY, WaitStrategy.BLOCKING);
+        ring.addHandler("first", (event, sequence) -> {
+        }, true);
+        ring.start();
+        assertThrows(IllegalStateException.class, () -> ring.addHandler("late", (event, sequence) -> {
+        }, true));
+    }
+
+    @Test
+    void rejectsCapacitiesNotPowersOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new TickRing(100, WaitStrategy.BLOCKING));
+    }
+
+    private static void publish(TickRing ring, int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            long sequence = ring.next();
+            ring.get(sequence).volume = sequence;
+            ring.publish(sequence);
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+}